@@ -0,0 +1,103 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.apache.maven.model.FileSet;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Mojo configured in code the way Maven would configure {@link UpdateStylesheetsMojo}, gives the
+ * benchmarks access to the individual stages of the compile pipeline. Info output is dropped so
+ * it does not end up in the measurements.
+ */
+class BenchmarkMojo extends AbstractSassMojo {
+
+    /**
+     * @param sourceDirectory Directory containing the templates, see {@link ScssCorpus}
+     * @param workDirectory Build directory, receives the css files and Sass cache
+     */
+    BenchmarkMojo(File sourceDirectory, File workDirectory, boolean compass) {
+        final Resource resource = new Resource();
+        resource.source = new FileSet();
+        resource.source.setDirectory(sourceDirectory.getAbsolutePath());
+        resource.source.setIncludes(ImmutableList.of("**/scss"));
+        resource.relativeOutputDirectory = "..";
+        resource.destination = new File(workDirectory, "css");
+
+        this.resources = ImmutableList.of(resource);
+        this.buildDirectory = workDirectory;
+        this.useCompass = compass;
+        // measure Compass with the runtime, not only once a template imports it
+        this.lazyCompass = false;
+        this.failOnError = true;
+        this.incremental = false;
+        this.metricsReport = false;
+        this.slowestTemplates = 0;
+
+        setLog(new SystemStreamLog() {
+            @Override
+            public boolean isInfoEnabled() {
+                return false;
+            }
+
+            @Override
+            public void info(CharSequence content) {
+            }
+
+            @Override
+            public void info(CharSequence content, Throwable error) {
+            }
+
+            @Override
+            public void info(Throwable error) {
+            }
+        });
+    }
+
+    /**
+     * Compile all stylesheets with the configured engine, as update-stylesheets does without incremental builds
+     */
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        final List<Entry<String, String>> templateLocations = getTemplateLocations();
+        checkForErrors(compileStylesheets(getStylesheets(templateLocations), templateLocations));
+    }
+
+    /**
+     * Compile all stylesheets in the runtime
+     *
+     * @throws IllegalStateException If a stylesheet failed to compile
+     */
+    void compile(SassRuntime runtime) throws Exception {
+        final List<Entry<String, String>> templateLocations = getTemplateLocations();
+        final CompilerCallback compilerCallback = new CompilerCallback(getLog());
+        updateStylesheets(runtime, getStylesheets(templateLocations), templateLocations, compilerCallback);
+        if (compilerCallback.hadError()) {
+            throw new IllegalStateException("Compiling the benchmark corpus failed: " + compilerCallback.getErrors());
+        }
+    }
+}
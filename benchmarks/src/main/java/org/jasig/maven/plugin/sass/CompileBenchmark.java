@@ -0,0 +1,128 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.io.Files;
+
+/**
+ * Full compiles of the generated corpus.
+ * <ul>
+ *  <li>cold: a new runtime and an empty Sass cache, like a clean build with runtime reuse disabled</li>
+ *  <li>warm: a runtime that already compiled the corpus and a filled Sass cache, like repeated builds
+ *  in one Maven session or the watch goal</li>
+ * </ul>
+ * always_update is on so every stylesheet is compiled in both cases.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CompileBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Corpus {
+        @Param({ "10", "100", "500" })
+        public int stylesheets;
+
+        @Param({ "false", "true" })
+        public boolean compass;
+
+        File workDirectory;
+        BenchmarkMojo mojo;
+        String bootstrapScript;
+
+        @Setup
+        public void setUp() throws Exception {
+            workDirectory = Files.createTempDir();
+            final File sourceDirectory = new File(workDirectory, "src");
+            ScssCorpus.generate(sourceDirectory, stylesheets, compass);
+            mojo = new BenchmarkMojo(sourceDirectory, workDirectory, compass);
+            bootstrapScript = mojo.buildBootstrapScript();
+        }
+
+        @Setup(Level.Invocation)
+        public void clearOutput() throws Exception {
+            FileUtils.deleteDirectory(new File(workDirectory, "css"));
+        }
+
+        @TearDown
+        public void tearDown() throws Exception {
+            FileUtils.deleteDirectory(workDirectory);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ColdCache {
+        @Setup(Level.Invocation)
+        public void clearCache(Corpus corpus) throws Exception {
+            FileUtils.deleteDirectory(new File(corpus.workDirectory, "sass_cache"));
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class WarmRuntime {
+        SassRuntime runtime;
+
+        @Setup
+        public void setUp(Corpus corpus) throws Exception {
+            runtime = SassRuntime.boot(corpus.bootstrapScript);
+            corpus.mojo.compile(runtime);
+        }
+
+        @TearDown
+        public void tearDown() {
+            runtime.terminate();
+        }
+    }
+
+    @Benchmark
+    public void cold(Corpus corpus, ColdCache coldCache) throws Exception {
+        final SassRuntime runtime = SassRuntime.boot(corpus.bootstrapScript);
+        try {
+            corpus.mojo.compile(runtime);
+        }
+        finally {
+            runtime.terminate();
+        }
+    }
+
+    @Benchmark
+    public void warm(Corpus corpus, WarmRuntime warmRuntime) throws Exception {
+        corpus.mojo.compile(warmRuntime.runtime);
+    }
+}
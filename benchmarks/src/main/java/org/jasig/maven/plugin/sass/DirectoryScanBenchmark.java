@@ -0,0 +1,91 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.model.FileSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+/**
+ * Scanning a resource for template directories with {@link Resource#getDirectoriesAndDestinations()},
+ * with and without the directory scan cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class DirectoryScanBenchmark {
+    @Param({ "10", "100", "1000" })
+    public int stylesheets;
+
+    private File workDirectory;
+    private Resource resource;
+    private DirectoryScanCache scanCache;
+
+    @Setup
+    public void setUp() throws Exception {
+        workDirectory = Files.createTempDir();
+        final File sourceDirectory = new File(workDirectory, "src");
+        ScssCorpus.generate(sourceDirectory, stylesheets, false);
+
+        resource = new Resource();
+        resource.source = new FileSet();
+        resource.source.setDirectory(sourceDirectory.getAbsolutePath());
+        resource.source.setIncludes(ImmutableList.of("**/scss"));
+        resource.relativeOutputDirectory = "..";
+        resource.destination = new File(workDirectory, "css");
+
+        scanCache = DirectoryScanCache.load(new File(workDirectory, "sass_scan_cache.properties"));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(workDirectory);
+    }
+
+    @Benchmark
+    public Map<String, String> scan() {
+        return resource.getDirectoriesAndDestinations();
+    }
+
+    @Benchmark
+    public Map<String, String> cachedScan() {
+        return resource.getDirectoriesAndDestinations(scanCache);
+    }
+}
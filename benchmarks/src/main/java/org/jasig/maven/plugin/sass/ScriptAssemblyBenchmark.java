@@ -0,0 +1,94 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.io.Files;
+
+/**
+ * Preparation of what is handed to JRuby: the bootstrap script, the typed sassOptions and the
+ * partitioning of the stylesheets over the compiler threads. The template locations are
+ * scanned once up front so only the preparation itself is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ScriptAssemblyBenchmark {
+    @Param({ "10", "100", "1000" })
+    public int stylesheets;
+
+    @Param({ "false", "true" })
+    public boolean compass;
+
+    private File workDirectory;
+    private BenchmarkMojo mojo;
+    private List<Entry<String, String>> templateLocations;
+    private List<Entry<String, String>> templates;
+
+    @Setup
+    public void setUp() throws Exception {
+        workDirectory = Files.createTempDir();
+        final File sourceDirectory = new File(workDirectory, "src");
+        ScssCorpus.generate(sourceDirectory, stylesheets, compass);
+        mojo = new BenchmarkMojo(sourceDirectory, workDirectory, compass);
+        templateLocations = mojo.getTemplateLocations();
+        templates = mojo.getStylesheets(templateLocations);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(workDirectory);
+    }
+
+    @Benchmark
+    public String bootstrapScript() {
+        return mojo.buildBootstrapScript();
+    }
+
+    @Benchmark
+    public SassOptions sassOptions() {
+        return mojo.getSassOptions();
+    }
+
+    @Benchmark
+    public List<List<Entry<String, String>>> partitionStylesheets() {
+        return mojo.partitionStylesheets(templates);
+    }
+}
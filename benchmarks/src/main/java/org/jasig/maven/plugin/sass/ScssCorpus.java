@@ -0,0 +1,132 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Generates a source tree of SCSS templates for the benchmarks. The stylesheets are spread over
+ * modules laid out like a webapp, <code>module-N/scss/</code> next to directories that contain no
+ * templates, each stylesheet imports the shared partials of its module.
+ */
+final class ScssCorpus {
+    static final int STYLESHEETS_PER_MODULE = 10;
+
+    private ScssCorpus() {
+    }
+
+    /**
+     * @param directory Directory to create the templates in, existing content is removed
+     * @param stylesheets Number of (non-partial) stylesheets to generate
+     * @param compass If the stylesheets use Compass mixins
+     */
+    static void generate(File directory, int stylesheets, boolean compass) throws IOException {
+        FileUtils.deleteDirectory(directory);
+
+        final int modules = (stylesheets + STYLESHEETS_PER_MODULE - 1) / STYLESHEETS_PER_MODULE;
+        for (int module = 0; module < modules; module++) {
+            final File moduleDir = new File(directory, "module-" + module);
+            final File scssDir = new File(moduleDir, "scss");
+            final File partialsDir = new File(scssDir, "partials");
+
+            // directories the scanner has to walk past
+            write(new File(moduleDir, "images/README"), "");
+            write(new File(moduleDir, "js/lib/module.js"), "");
+            write(new File(moduleDir, ".svn/entries"), "");
+
+            write(new File(partialsDir, "_variables.scss"), variables(module));
+            write(new File(partialsDir, "_mixins.scss"), mixins(compass));
+
+            final int first = module * STYLESHEETS_PER_MODULE;
+            for (int i = first; i < Math.min(stylesheets, first + STYLESHEETS_PER_MODULE); i++) {
+                write(new File(scssDir, "stylesheet-" + i + ".scss"), stylesheet(i, compass));
+            }
+        }
+    }
+
+    private static String variables(int module) {
+        final StringBuilder scss = new StringBuilder();
+        scss.append("$module: module-").append(module).append(";\n");
+        scss.append("$base-color: #").append(String.format("%06x", (module * 0x1f3d5b) & 0xffffff)).append(";\n");
+        scss.append("$accent-color: lighten($base-color, 20%);\n");
+        scss.append("$gutter: ").append(10 + module % 10).append("px;\n");
+        scss.append("$columns: 12;\n");
+        return scss.toString();
+    }
+
+    private static String mixins(boolean compass) {
+        final StringBuilder scss = new StringBuilder();
+        if (compass) {
+            scss.append("@import \"compass/css3\";\n");
+            scss.append("@import \"compass/utilities\";\n\n");
+            scss.append("@mixin panel($color) {\n");
+            scss.append("  @include border-radius(4px);\n");
+            scss.append("  @include box-shadow(rgba($color, 0.4) 0 1px 3px);\n");
+            scss.append("  @include background-image(linear-gradient($color, darken($color, 10%)));\n");
+            scss.append("  @include clearfix;\n");
+            scss.append("}\n");
+        }
+        else {
+            scss.append("@mixin panel($color) {\n");
+            scss.append("  border-radius: 4px;\n");
+            scss.append("  box-shadow: rgba($color, 0.4) 0 1px 3px;\n");
+            scss.append("  background: darken($color, 10%);\n");
+            scss.append("  overflow: hidden;\n");
+            scss.append("}\n");
+        }
+        scss.append("\n@mixin column($span) {\n");
+        scss.append("  float: left;\n");
+        scss.append("  width: percentage($span / $columns);\n");
+        scss.append("  padding: 0 $gutter / 2;\n");
+        scss.append("}\n");
+        return scss.toString();
+    }
+
+    private static String stylesheet(int index, boolean compass) {
+        final StringBuilder scss = new StringBuilder();
+        scss.append("@import \"partials/variables\";\n");
+        scss.append("@import \"partials/mixins\";\n\n");
+        scss.append(".stylesheet-").append(index).append(" {\n");
+        scss.append("  color: $base-color;\n");
+        for (int block = 0; block < 20; block++) {
+            scss.append("  .block-").append(block).append(" {\n");
+            scss.append("    @include panel(adjust-hue($accent-color, ").append(block * 15).append("deg));\n");
+            scss.append("    @include column(").append(block % 12 + 1).append(");\n");
+            scss.append("    &:hover { color: darken($base-color, ").append(block % 30).append("%); }\n");
+            scss.append("    .title, .subtitle { font-size: ").append(10 + block).append("px; margin: $gutter; }\n");
+            scss.append("  }\n");
+        }
+        scss.append("  @for $i from 1 through 10 {\n");
+        scss.append("    .item-#{$i} { width: $i * 10%; }\n");
+        scss.append("  }\n");
+        scss.append("}\n");
+        return scss.toString();
+    }
+
+    private static void write(File file, String content) throws IOException {
+        Files.createParentDirs(file);
+        Files.write(content, file, Charsets.UTF_8);
+    }
+}
@@ -19,34 +19,70 @@
 package org.jasig.maven.plugin.sass;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import javax.script.ScriptContext;
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
-import javax.script.ScriptException;
-
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.apache.maven.model.FileSet;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugin.logging.Log;
+import org.jruby.embed.EvalFailedException;
+import org.jruby.embed.InvokeFailedException;
 
+import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 /**
  * Base for batching SASS Mojos.
  * 
  */
 public abstract class AbstractSassMojo extends AbstractMojo {
+    /**
+     * Frameworks bundled with Compass, imports starting with their name need Compass loaded
+     */
+    private static final Set<String> COMPASS_FRAMEWORKS = ImmutableSet.of("compass", "blueprint");
+
+    /**
+     * Project configuration files Compass.add_project_configuration looks for in the working directory
+     */
+    private static final List<String> COMPASS_CONFIG_FILES = ImmutableList.of("config/compass.rb", ".compass/config.rb",
+            "config/compass.config", "config.rb", "src/config.rb");
+
+    /**
+     * sassOptions the java engine honors or that do not change the compiled css
+     */
+    private static final Set<String> JAVA_ENGINE_OPTIONS = ImmutableSet.of("unix_newlines", "cache", "cache_location",
+            "always_update", "load_paths", "style");
 
     /**
      * Sources for compilation with their destination directory containing SASS files. Allows
@@ -71,6 +107,29 @@ public abstract class AbstractSassMojo extends AbstractMojo {
      */
     protected List<Resource> resources;
 
+    /**
+     * Additional css files written for each stylesheet when the sources are specified with
+     * sassSourceDirectory instead of resources, see {@link OutputProfile}. Resources have their own outputProfiles.
+     * <br/>
+     * Example configuration
+     * <pre>
+     *      &lt;outputProfiles>
+     *          &lt;outputProfile>
+     *              &lt;style>compressed&lt;/style>
+     *              &lt;suffix>.min&lt;/suffix>
+     *          &lt;/outputProfile>
+     *      &lt;/outputProfiles>
+     * </pre>
+     *
+     * @parameter
+     */
+    protected List<OutputProfile> outputProfiles;
+
+    /**
+     * css location to the output profiles of its resource, filled by {@link #getTemplateLocations()}
+     */
+    private final Map<String, List<OutputProfile>> outputProfileLocations = new ConcurrentHashMap<String, List<OutputProfile>>();
+
     /**
      * Defines paths where jruby will look for gems. E.g. a maven build could download
      * gems into ${project.build.directory}/rubygems and a gemPath pointed to this
@@ -117,6 +176,8 @@ public abstract class AbstractSassMojo extends AbstractMojo {
      * &lt;cache_location>${project.build.directory}/sass_cache&lt;/cache_location>
      * &lt;style>:expanded&lt;/style>
      * </pre>
+     * With incremental builds enabled always_update only applies to the stylesheets the build
+     * manifest found to be out of date, unchanged stylesheets are not passed to Sass at all.
      * 
      * @parameter
      */
@@ -134,6 +195,17 @@ public abstract class AbstractSassMojo extends AbstractMojo {
      */
     protected boolean useCompass;
 
+    /**
+     * With useCompass, only load Compass into a runtime once it compiles a stylesheet that imports
+     * Compass, blueprint or another registered framework, directly or through its imports. Builds whose
+     * changed stylesheets do not use Compass skip loading it. Only enable if no template uses Compass
+     * functions (e.g. image-url or inline-image) without importing a framework, those are left in the
+     * css as plain function calls when Compass is not loaded.
+     *
+     * @parameter expression="${sass.lazyCompass}" default-value="false"
+     */
+    protected boolean lazyCompass;
+
     /**
      * Directory containing SASS files, defaults to the Maven Web application sources directory (src/main/webapp)
      *
@@ -175,44 +247,847 @@ public abstract class AbstractSassMojo extends AbstractMojo {
     protected File destination;
 
     /**
-     * Execute the SASS Compilation Ruby Script
+     * Remember the directories found for the resources in the build directory and reuse them as long as
+     * the modification times of the scanned directories did not change, so repeated builds skip walking
+     * the source directories.
+     *
+     * @parameter expression="${sass.cacheDirectoryScan}" default-value="false"
+     */
+    protected boolean cacheDirectoryScan;
+
+    /**
+     * Take a snapshot of the gem directories and Compass frameworks the first runtime resolved and
+     * keep it in the build directory. Later runtimes with the same gemPaths, gems and useCompass
+     * configuration load from the snapshot, without RubyGems gemspec discovery and Compass framework
+     * directory probing.
+     *
+     * @parameter expression="${sass.cacheGemIndex}" default-value="true"
+     */
+    protected boolean cacheGemIndex = true;
+
+    private GemBundleIndex gemBundleIndex;
+    private boolean gemBundleIndexLoaded;
+    private boolean gemBundleIndexTaken;
+
+    /**
+     * Keep the JRuby runtime with Sass/Compass loaded after the execution and reuse it for later
+     * executions with the same gemPaths, gems and useCompass configuration, e.g. in the other
+     * modules of a reactor build. Only the first execution pays for JRuby startup and gem loading.
+     *
+     * @parameter expression="${sass.reuseRuntime}" default-value="true"
+     */
+    protected boolean reuseRuntime = true;
+
+    /**
+     * Terminate a reused runtime after this many executions instead of keeping it, so memory held
+     * by a long lived runtime (watch, large reactors) is given back. 0 to keep runtimes forever.
+     *
+     * @parameter expression="${sass.runtimeMaxExecutions}" default-value="100"
+     */
+    protected int runtimeMaxExecutions = 100;
+
+    /**
+     * Do not keep runtimes for reuse while more than this percentage of the maximum heap is in use,
+     * all idle runtimes are terminated instead. 0 to disable the check.
+     *
+     * @parameter expression="${sass.runtimeMaxHeapUsage}" default-value="80"
+     */
+    protected int runtimeMaxHeapUsage = 80;
+
+    /**
+     * Number of threads used to compile stylesheets. Values greater than one split the stylesheets
+     * into that many groups and compile each group on its own JRuby runtime. A value of zero uses
+     * one thread per available processor. The daemon and java engines always compile on one thread.
+     *
+     * @parameter expression="${sass.threads}" default-value="1"
+     */
+    protected int threads = 1;
+
+    /**
+     * Only compile stylesheets whose template, imported files or output changed since the last build.
+     * Content hashes of all inputs and outputs and of the effective configuration are kept in a build
+     * manifest in the build directory. When nothing changed JRuby is not started at all. Imports are
+     * tracked in the template locations and the load_paths of sassOptions, all stylesheets are compiled
+     * if load_paths is no plain string or array of strings or a Compass project configuration adds
+     * import paths.
+     *
+     * @parameter expression="${sass.incremental}" default-value="true"
+     */
+    protected boolean incremental = true;
+
+    /**
+     * Write per-stylesheet timings, cache hits and sizes of each compile to sass_metrics.json and
+     * sass_metrics.csv in the build directory.
+     *
+     * @parameter expression="${sass.metricsReport}" default-value="true"
+     */
+    protected boolean metricsReport = true;
+
+    /**
+     * Only log a summary of each compile (counts, failures and the slowest stylesheets) instead of a line
+     * per template and template location, those lines are written at debug level. Useful for large
+     * template sets where the per template output slows down the build and floods the log.
+     *
+     * @parameter expression="${sass.summaryLog}" default-value="false"
+     */
+    protected boolean summaryLog = false;
+
+    /**
+     * Stop compiling on the first compilation error instead of compiling all remaining stylesheets,
+     * the error is logged as soon as it happens. Stylesheets that failed in the last build and those
+     * whose templates changed are compiled first, so broken changes fail the build quickly.
+     *
+     * @parameter expression="${sass.failFast}" default-value="false"
+     */
+    protected boolean failFast = false;
+
+    /**
+     * Number of slowest stylesheets of each compile to list in the build log, 0 to list none.
+     *
+     * @parameter expression="${sass.slowestTemplates}" default-value="5"
+     */
+    protected int slowestTemplates = 5;
+
+    /**
+     * Maximum time in seconds the compilation of a single stylesheet may take, 0 for no limit. A stylesheet
+     * exceeding it, e.g. with a runaway @for/@each loop, is reported as a compilation error and the remaining
+     * stylesheets are still compiled. The java engine can not stop such a stylesheet: it is abandoned and its
+     * thread keeps running, using CPU and memory, until the compile ends on its own or Maven exits. The remaining
+     * stylesheets compile on a new thread.
+     *
+     * @parameter expression="${sass.templateTimeout}" default-value="0"
+     */
+    protected int templateTimeout;
+
+    /**
+     * Maximum memory in megabytes the compilation of a single stylesheet may allocate, 0 for no limit. Handled
+     * like templateTimeout. Counts all bytes allocated by the compiling thread, which needs a HotSpot JVM.
+     *
+     * @parameter expression="${sass.templateMaxAllocation}" default-value="0"
+     */
+    protected int templateMaxAllocation;
+
+    /**
+     * Compiler engine to use:
+     * <ul>
+     *  <li>jruby: Ruby Sass running in JRuby, supports the SASS and SCSS syntax, Compass, gems and all sassOptions</li>
+     *  <li>daemon: like jruby, but the runtime runs in a background JVM that stays loaded between Maven
+     *  invocations and exits after daemonIdleTimeout. Falls back to jruby if the daemon is not available.
+     *  The stylesheets of a build are compiled in one request on a single runtime of the daemon, threads is
+     *  ignored.</li>
+     *  <li>java: pure Java SCSS compiler, starts much faster and needs far less memory but supports neither
+     *  the indented SASS syntax nor Compass, gems or output profiles. The output is always in the expanded style,
+     *  of the sassOptions only load_paths is used. Other styles fail the build, other options are ignored with
+     *  a warning. Stylesheets are compiled one after the other on a single thread, threads is ignored.</li>
+     * </ul>
+     * The watch goal with nativeWatcher disabled always uses jruby.
+     *
+     * @parameter expression="${sass.engine}" default-value="jruby"
+     */
+    protected String engine = CompilerEngine.JRUBY;
+
+    /**
+     * Minutes the daemon of the daemon engine keeps running without compile requests.
+     *
+     * @parameter expression="${sass.daemonIdleTimeout}" default-value="60"
+     */
+    protected int daemonIdleTimeout = 60;
+
+    /**
+     * Maximum heap size of the daemon JVM of the daemon engine, e.g. 512m, passed as -Xmx. Compiling
+     * in the daemon keeps the heap of the Maven JVM free of runtimes. Daemons with different heap
+     * sizes run side by side. Empty for the JVM default.
+     *
+     * @parameter expression="${sass.daemonMaxHeap}"
+     */
+    protected String daemonMaxHeap;
+
+    /**
+     * Directory of a Sass cache shared by all modules and builds, e.g. ${user.home}/.m2/sass-cache.
+     * Cached parse trees are addressed by the content of the template, so identical partials are
+     * parsed once wherever they are located, and the cache survives mvn clean. Parallel builds may
+     * share the directory. If not set the cache_location option is used (by default
+     * ${project.build.directory}/sass_cache). Only used by the jruby and daemon engines.
+     *
+     * @parameter expression="${sass.cacheStore}"
+     */
+    protected File cacheStore;
+
+    /**
+     * Size in megabytes the shared cacheStore may grow to before the least recently used entries are deleted.
+     *
+     * @parameter expression="${sass.cacheStoreMaxSize}" default-value="256"
+     */
+    protected int cacheStoreMaxSize = 256;
+
+    /**
+     * Create the configured compiler engine, it must be closed once the execution is done
+     */
+    protected CompilerEngine createCompilerEngine() throws MojoExecutionException {
+        for (final OutputProfile outputProfile : getConfiguredOutputProfiles()) {
+            if (outputProfile.getStyle() == null || outputProfile.getSuffix() == null || outputProfile.getSuffix().isEmpty()) {
+                throw new MojoExecutionException("Output profiles need a style and a suffix: " + outputProfile);
+            }
+        }
+
+        if (CompilerEngine.JRUBY.equals(engine)) {
+            return new JRubyCompilerEngine(this);
+        }
+        if (CompilerEngine.DAEMON.equals(engine)) {
+            return new DaemonCompilerEngine(this, daemonIdleTimeout * 60000L, daemonMaxHeap);
+        }
+        if (CompilerEngine.JAVA.equals(engine)) {
+            if (useCompass || gems.length > 0) {
+                throw new MojoExecutionException("Compass and gems require the " + CompilerEngine.JRUBY + " engine");
+            }
+            if (!getConfiguredOutputProfiles().isEmpty()) {
+                throw new MojoExecutionException("Output profiles require the " + CompilerEngine.JRUBY + " engine");
+            }
+            checkJavaEngineOptions();
+            return new JavaCompilerEngine(this);
+        }
+        throw new MojoExecutionException("Unknown SASS compiler engine '" + engine + "', use "
+                + CompilerEngine.JRUBY + ", " + CompilerEngine.DAEMON + " or " + CompilerEngine.JAVA);
+    }
+
+    /**
+     * Fail on sassOptions that change the css in ways the java engine can not reproduce, warn about others
+     * it ignores
+     */
+    private void checkJavaEngineOptions() throws MojoExecutionException {
+        final SassOptions options = getSassOptions();
+        if (options.contains("style") && !"expanded".equals(options.getSymbols().get("style"))) {
+            throw new MojoExecutionException("The " + CompilerEngine.JAVA + " engine only writes the expanded style, not "
+                    + options.getLiterals().get("style"));
+        }
+        if (options.getStrings("load_paths") == null) {
+            throw new MojoExecutionException("The " + CompilerEngine.JAVA + " engine needs load_paths to be a string or"
+                    + " an array of strings, not " + options.getLiterals().get("load_paths"));
+        }
+        for (final String name : options.getLiterals().keySet()) {
+            if (!JAVA_ENGINE_OPTIONS.contains(name)) {
+                getLog().warn("sassOptions " + name + " is ignored by the " + CompilerEngine.JAVA + " engine");
+            }
+        }
+    }
+
+    /**
+     * Compile the stylesheets with a new engine that is closed afterwards
+     *
+     * @return The callback the engine reported to
      */
-    protected void executeSassScript(String sassScript) throws MojoExecutionException, MojoFailureException {
+    protected CompilerCallback compileStylesheets(List<Entry<String, String>> stylesheets,
+            List<Entry<String, String>> templateLocations) throws MojoExecutionException {
+        final CompilerCallback compilerCallback = createCompilerCallback();
+        final CompilerEngine compilerEngine = createCompilerEngine();
+        try {
+            compilerEngine.compile(stylesheets, templateLocations, compilerCallback);
+        }
+        finally {
+            compilerEngine.close();
+        }
+        return compilerCallback;
+    }
+
+    /**
+     * Create the callback for a compile, logging a summary only if summaryLog is set
+     */
+    protected CompilerCallback createCompilerCallback() {
+        return new CompilerCallback(getLog(), summaryLog, failFast);
+    }
+
+    /**
+     * Fail the build if the callback reported errors and failOnError is set
+     */
+    protected void checkForErrors(CompilerCallback compilerCallback) throws MojoFailureException {
+        if (failOnError && compilerCallback.hadError()) {
+            throw new MojoFailureException("SASS compilation encountered " + compilerCallback.getErrors().size()
+                    + " error(s) (see above for details).");
+        }
+    }
+
+    /**
+     * Compile the stylesheets concurrently, each group on its own runtime. Errors reported for all
+     * groups are collected by the given callback.
+     *
+     * @param stylesheetGroups Template to css file pairs per runtime, see {@link #partitionStylesheets(List)}
+     * @param templateLocations All template locations of this execution, used as load paths
+     */
+    protected void compileOnRuntimes(List<List<Entry<String, String>>> stylesheetGroups,
+            final List<Entry<String, String>> templateLocations, final CompilerCallback compilerCallback)
+            throws MojoExecutionException {
         final Log log = this.getLog();
-        System.setProperty("org.jruby.embed.localcontext.scope", "threadsafe");
 
-        log.debug("Execute SASS Ruby Script:\n" + sassScript);
+        final String bootstrapScript = buildBootstrapScript();
+        log.debug("Bootstrap SASS Ruby Script:\n" + bootstrapScript);
+
+        if (stylesheetGroups.size() == 1) {
+            compileOnRuntime(bootstrapScript, stylesheetGroups.get(0), templateLocations, compilerCallback);
+        }
+        else {
+            final ExecutorService executor = Executors.newFixedThreadPool(stylesheetGroups.size(),
+                    new ThreadFactoryBuilder().setNameFormat("sass-compiler-%d").setDaemon(true).build());
+            try {
+                final List<Future<Void>> results = new ArrayList<Future<Void>>(stylesheetGroups.size());
+                for (final List<Entry<String, String>> stylesheets : stylesheetGroups) {
+                    results.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            compileOnRuntime(bootstrapScript, stylesheets, templateLocations, compilerCallback);
+                            return null;
+                        }
+                    }));
+                }
 
-        final ScriptEngineManager scriptEngineManager = new ScriptEngineManager();
-        final ScriptEngine jruby = scriptEngineManager.getEngineByName("jruby");
+                MojoExecutionException failure = null;
+                for (final Future<Void> result : results) {
+                    try {
+                        result.get();
+                    }
+                    catch (final ExecutionException e) {
+                        if (failure == null) {
+                            failure = e.getCause() instanceof MojoExecutionException
+                                    ? (MojoExecutionException) e.getCause()
+                                    : new MojoExecutionException("Failed to compile SASS templates", e.getCause());
+                        }
+                    }
+                    catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new MojoExecutionException("Interrupted while waiting for SASS compilation", e);
+                    }
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+            }
+            finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private void compileOnRuntime(String bootstrapScript, List<Entry<String, String>> stylesheets,
+            List<Entry<String, String>> templateLocations, CompilerCallback compilerCallback) throws MojoExecutionException {
+        final SassRuntime runtime = acquireRuntime(bootstrapScript);
+
+        boolean reusable = false;
         try {
-            CompilerCallback compilerCallback = new CompilerCallback(log);
-            jruby.getBindings(ScriptContext.ENGINE_SCOPE).put("compiler_callback", compilerCallback);
-            jruby.eval(sassScript);
-            if (failOnError && compilerCallback.hadError()) {
-                throw new MojoFailureException("SASS compilation encountered errors (see above for details).");
+            updateStylesheets(runtime, stylesheets, templateLocations, compilerCallback);
+            reusable = true;
+        }
+        finally {
+            releaseRuntime(runtime, reusable);
+        }
+    }
+
+    /**
+     * Compile stylesheets on a runtime obtained from {@link #acquireRuntime(String)}. The template
+     * locations are not compiled as a whole, they are only registered as load paths so imports
+     * between template locations resolve.
+     *
+     * @param stylesheets Template to css file pairs to compile
+     * @param templateLocations All template locations of this execution
+     */
+    protected void updateStylesheets(SassRuntime runtime, List<Entry<String, String>> stylesheets,
+            List<Entry<String, String>> templateLocations, CompilerCallback compilerCallback) throws MojoExecutionException {
+        final List<String> loadPaths = new ArrayList<String>(templateLocations.size());
+        for (final Entry<String, String> location : templateLocations) {
+            loadPaths.add(location.getKey());
+        }
+
+        try {
+            activateCompass(runtime, stylesheets, templateLocations);
+            configureRuntime(runtime, ImmutableList.<Entry<String, String>>of(), loadPaths);
+            runtime.updateStylesheets(stylesheets, compilerCallback, createTemplateGuard());
+        }
+        catch (final EvalFailedException | InvokeFailedException e) {
+            throw new MojoExecutionException("Failed to compile SASS templates", e);
+        }
+    }
+
+    /**
+     * @return Guard for templateTimeout and templateMaxAllocation, null if neither is set. Each compiling
+     * thread needs its own guard.
+     */
+    protected TemplateGuard createTemplateGuard() {
+        if (templateTimeout <= 0 && templateMaxAllocation <= 0) {
+            return null;
+        }
+        return new TemplateGuard(getTemplateTimeoutMillis(), getTemplateMaxAllocationBytes());
+    }
+
+    protected long getTemplateTimeoutMillis() {
+        return Math.max(0, templateTimeout) * 1000L;
+    }
+
+    protected long getTemplateMaxAllocationBytes() {
+        return Math.max(0, templateMaxAllocation) * 1024L * 1024L;
+    }
+
+    /**
+     * Load Compass into a runtime started without it if one of the stylesheets needs it, see lazyCompass
+     */
+    protected void activateCompass(SassRuntime runtime, List<Entry<String, String>> stylesheets,
+            List<Entry<String, String>> templateLocations) throws MojoExecutionException {
+        if (!isLazyCompass() || runtime.isCompassLoaded() || !needsCompass(stylesheets, templateLocations)) {
+            return;
+        }
+        final long start = System.currentTimeMillis();
+        runtime.activateCompass(getCompassScript());
+        getLog().debug("Loaded Compass in " + (System.currentTimeMillis() - start) + "ms");
+        takeGemBundleIndex(runtime);
+    }
+
+    /**
+     * @return True if Compass is used but only loaded for stylesheets that need it
+     */
+    protected boolean isLazyCompass() {
+        return this.useCompass && this.lazyCompass;
+    }
+
+    /**
+     * @return True if Compass is loaded lazily and one of the stylesheets imports Compass, blueprint or
+     * another registered framework, directly or through the templates it imports
+     */
+    protected boolean needsCompass(List<Entry<String, String>> stylesheets, List<Entry<String, String>> templateLocations)
+            throws MojoExecutionException {
+        if (!isLazyCompass()) {
+            return false;
+        }
+
+        final Set<String> frameworks = new HashSet<String>(COMPASS_FRAMEWORKS);
+        final GemBundleIndex index = getGemBundleIndex();
+        if (index != null) {
+            frameworks.addAll(index.getFrameworks().keySet());
+        }
+
+        final ImportResolver importResolver = createImportResolver(templateLocations);
+        final Set<File> visited = new HashSet<File>();
+        final Deque<File> pending = new ArrayDeque<File>();
+        for (final Entry<String, String> stylesheet : stylesheets) {
+            pending.add(new File(stylesheet.getKey()));
+        }
+        try {
+            for (File template = pending.poll(); template != null; template = pending.poll()) {
+                if (!visited.add(template) || !template.isFile()) {
+                    continue;
+                }
+                for (final String name : ImportResolver.getImportNames(Files.toString(template, Charsets.UTF_8))) {
+                    final File imported = importResolver.resolve(template.getParentFile(), name);
+                    if (imported != null) {
+                        pending.add(imported);
+                    }
+                    else if (frameworks.contains(name.split("/")[0])) {
+                        getLog().debug("Compass needed by " + template + ", it imports " + name);
+                        return true;
+                    }
+                }
             }
         }
-        catch (final ScriptException e) {
-            throw new MojoExecutionException("Failed to execute SASS ruby script:\n" + sassScript, e);
+        catch (final IOException e) {
+            throw new MojoExecutionException("Failed to check SASS templates for Compass imports", e);
         }
+        return false;
     }
 
-    protected void buildBasicSASSScript(final StringBuilder sassScript) throws MojoExecutionException {
-        final Log log = this.getLog();
+    /**
+     * Configure Sass::Plugin of the runtime with the options of this execution
+     *
+     * @param templateLocations Template locations compiled as a whole, e.g. by Sass::Plugin.watch
+     * @param loadPaths Additional directories imports are resolved against
+     */
+    protected void configureRuntime(SassRuntime runtime, List<Entry<String, String>> templateLocations, List<String> loadPaths) {
+        final SassOptions sassOptions = getSassOptions();
+        if (this.useCompass) {
+            getLog().info("Running with Compass enabled.");
+        }
+        getLog().debug("SASS options: " + sassOptions);
+        runtime.configure(sassOptions, templateLocations, loadPaths, getCacheStore(), getOutputProfiles(),
+                getLog().isDebugEnabled());
+    }
+
+    /**
+     * @return css location to the output profiles of the stylesheets below it, for the template
+     * locations last returned by {@link #getTemplateLocations()}
+     */
+    protected Map<String, List<OutputProfile>> getOutputProfiles() {
+        return new HashMap<String, List<OutputProfile>>(outputProfileLocations);
+    }
+
+    private List<OutputProfile> getConfiguredOutputProfiles() {
+        final List<OutputProfile> configured = new ArrayList<OutputProfile>();
+        if (this.resources == null) {
+            if (this.outputProfiles != null) {
+                configured.addAll(this.outputProfiles);
+            }
+        }
+        else {
+            for (final Resource resource : this.resources) {
+                configured.addAll(resource.getOutputProfiles());
+            }
+        }
+        return configured;
+    }
+
+    /**
+     * @return The shared cache store, null if none is configured or it is not usable
+     */
+    protected SassCacheStore getCacheStore() {
+        if (this.cacheStore == null) {
+            return null;
+        }
+        try {
+            return SassCacheStore.get(this.cacheStore, getCacheStoreMaxBytes());
+        }
+        catch (final IOException e) {
+            getLog().warn("Failed to open shared SASS cache " + this.cacheStore + ", using cache_location instead", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return The maximum size of the shared cache store in bytes
+     */
+    protected long getCacheStoreMaxBytes() {
+        return cacheStoreMaxSize * 1024L * 1024L;
+    }
+
+    /**
+     * @return The configured sassOptions with the defaults of the plugin applied. Template locations and
+     * Compass load paths are added when the runtime is configured.
+     */
+    protected SassOptions getSassOptions() {
+        final SassOptions options = SassOptions.parse(this.sassOptions);
+
+        //If not explicitly set place the cache location in the target dir
+        if (!options.contains("cache_location")) {
+            final File sassCacheDir = new File(this.buildDirectory, "sass_cache");
+            options.put("cache_location", FilenameUtils.separatorsToUnix(sassCacheDir.toString()));
+        }
+        return options;
+    }
+
+    /**
+     * Get a runtime that ran the bootstrap script, from the shared pool if reuseRuntime is set. The
+     * runtime must be handed back with {@link #releaseRuntime(SassRuntime, boolean)}.
+     */
+    protected SassRuntime acquireRuntime(String bootstrapScript) throws MojoExecutionException {
+        final SassRuntime runtime;
+        try {
+            runtime = reuseRuntime ? SassRuntimePool.SHARED.acquire(bootstrapScript, getLog()) : SassRuntime.boot(bootstrapScript);
+        }
+        catch (final EvalFailedException e) {
+            throw new MojoExecutionException("Failed to start JRuby with SASS ruby script:\n" + bootstrapScript, e);
+        }
+        takeGemBundleIndex(runtime);
+        return runtime;
+    }
+
+    /**
+     * Write the gem bundle index from the first runtime started without one
+     */
+    private synchronized void takeGemBundleIndex(SassRuntime runtime) {
+        if (!cacheGemIndex || gemBundleIndexTaken || getGemBundleIndex() != null) {
+            return;
+        }
+        if (this.useCompass && !runtime.isCompassLoaded()) {
+            // the frameworks are only known once Compass is loaded, see activateCompass
+            return;
+        }
+        gemBundleIndexTaken = true;
+
+        try {
+            new GemBundleIndex(runtime.getGemLoadPaths(), runtime.getFrameworks())
+                    .save(getGemBundleIndexFile(), getGemBundleIndexKey());
+        }
+        catch (final EvalFailedException | InvokeFailedException | IOException e) {
+            getLog().warn("Failed to write SASS gem bundle index " + getGemBundleIndexFile(), e);
+        }
+    }
+
+    /**
+     * @return The gem bundle index for the current configuration, null if there is none or cacheGemIndex is not set.
+     * Loaded once so all runtimes of an execution run the same bootstrap script.
+     */
+    private synchronized GemBundleIndex getGemBundleIndex() {
+        if (!gemBundleIndexLoaded) {
+            gemBundleIndexLoaded = true;
+            if (cacheGemIndex) {
+                gemBundleIndex = GemBundleIndex.load(getGemBundleIndexFile(), getGemBundleIndexKey());
+            }
+        }
+        return gemBundleIndex;
+    }
+
+    private File getGemBundleIndexFile() {
+        return new File(this.buildDirectory, "sass_gem_index.properties");
+    }
+
+    /**
+     * The gems resolve the same as long as the gem configuration and the plugin jar, which contains
+     * JRuby and the bundled gems, are the same
+     */
+    private String getGemBundleIndexKey() {
+        final Hasher hasher = Hashing.sha1().newHasher();
+        hasher.putString(buildBootstrapScript(null, true), Charsets.UTF_8);
+        hasher.putString(String.valueOf(AbstractSassMojo.class.getProtectionDomain().getCodeSource().getLocation()),
+                Charsets.UTF_8);
+        final String gemPath = System.getenv("GEM_PATH");
+        if (gemPath != null) {
+            hasher.putString(gemPath, Charsets.UTF_8);
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Hand back a runtime, it is pooled if reuseRuntime is set and the runtime is still in a usable state.
+     */
+    protected void releaseRuntime(SassRuntime runtime, boolean reusable) {
+        if (reusable && reuseRuntime) {
+            SassRuntimePool.SHARED.release(runtime, runtimeMaxExecutions, runtimeMaxHeapUsage, getLog());
+        }
+        else {
+            SassRuntimePool.SHARED.discard(runtime);
+        }
+    }
+
+    /**
+     * Split the stylesheets into one group per compiler thread, round robin.
+     *
+     * @param stylesheets Template to css file pairs to compile
+     */
+    protected List<List<Entry<String, String>>> partitionStylesheets(List<Entry<String, String>> stylesheets) {
+        final int threadCount = Math.min(
+                this.threads > 0 ? this.threads : Runtime.getRuntime().availableProcessors(),
+                Math.max(1, stylesheets.size()));
+
+        final List<List<Entry<String, String>>> groups = new ArrayList<List<Entry<String, String>>>(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            groups.add(new ArrayList<Entry<String, String>>());
+        }
+        for (int i = 0; i < stylesheets.size(); i++) {
+            groups.get(i % threadCount).add(stylesheets.get(i));
+        }
+
+        if (threadCount > 1) {
+            getLog().info("Compiling " + stylesheets.size() + " stylesheets with " + threadCount + " threads");
+        }
+        return groups;
+    }
+
+    /**
+     * Log the summary and the slowest stylesheets compiled with the callback and write the metrics report if enabled
+     */
+    protected void reportMetrics(CompilerCallback compilerCallback) {
+        compilerCallback.logSummary();
+
+        final HeapMetrics heapMetrics = compilerCallback.getHeapMetrics();
+        if (heapMetrics != null) {
+            getLog().info("SASS compile used " + heapMetrics);
+        }
+
+        final Collection<TemplateMetrics> metrics = compilerCallback.getMetrics();
+        if (metrics.isEmpty()) {
+            return;
+        }
+
+        final MetricsReport report = new MetricsReport(metrics, heapMetrics);
+        report.logSlowest(getLog(), slowestTemplates);
+        if (metricsReport) {
+            try {
+                report.write(buildDirectory);
+            }
+            catch (IOException e) {
+                getLog().warn("Failed to write SASS metrics report to " + buildDirectory, e);
+            }
+        }
+    }
+
+    /**
+     * Find the stylesheets Sass would compile for the template locations: all .scss and .sass files
+     * below each template location that are not partials, mapped to the css file in the css location.
+     */
+    protected List<Entry<String, String>> getStylesheets(List<Entry<String, String>> templateLocations) {
+        final List<Entry<String, String>> stylesheets = new ArrayList<Entry<String, String>>();
+        for (final Entry<String, String> location : templateLocations) {
+            collectStylesheets(new File(location.getKey()), location.getValue(), stylesheets);
+        }
+        return stylesheets;
+    }
+
+    private void collectStylesheets(File directory, String cssDirectory, List<Entry<String, String>> stylesheets) {
+        final File[] children = directory.listFiles();
+        if (children == null) {
+            return;
+        }
+        Arrays.sort(children);
+        for (final File child : children) {
+            final String name = child.getName();
+            if (name.startsWith(".")) {
+                continue;
+            }
+            if (child.isDirectory()) {
+                collectStylesheets(child, cssDirectory + "/" + name, stylesheets);
+            }
+            else if (!name.startsWith("_") && (name.endsWith(".scss") || name.endsWith(".sass"))) {
+                final String css = cssDirectory + "/" + FilenameUtils.removeExtension(name) + ".css";
+                stylesheets.add(Maps.immutableEntry(ImportResolver.toPath(child), ImportResolver.toPath(new File(css))));
+            }
+        }
+    }
+
+    /**
+     * Hash over everything besides the templates that influences the compiled CSS
+     */
+    protected String getOptionsHash(List<Entry<String, String>> templateLocations) {
+        final Hasher hasher = Hashing.sha1().newHasher();
+        for (final Entry<String, String> option : new TreeMap<String, String>(this.sassOptions).entrySet()) {
+            hasher.putString(option.getKey() + "=" + option.getValue() + "\n", Charsets.UTF_8);
+        }
+        for (final Entry<String, String> location : templateLocations) {
+            hasher.putString(location.getKey() + "=" + location.getValue() + "\n", Charsets.UTF_8);
+        }
+        for (final Entry<String, List<OutputProfile>> location : new TreeMap<String, List<OutputProfile>>(getOutputProfiles()).entrySet()) {
+            hasher.putString(location.getKey() + "=" + location.getValue() + "\n", Charsets.UTF_8);
+        }
+        // the daemon runs the same Ruby Sass as the jruby engine
+        hasher.putString((CompilerEngine.JAVA.equals(this.engine) ? CompilerEngine.JAVA : CompilerEngine.JRUBY) + "\n",
+                Charsets.UTF_8);
+        hasher.putString(buildBootstrapScript(null, true), Charsets.UTF_8);
+        return hasher.hash().toString();
+    }
+
+    /**
+     * @return The location of the incremental build manifest
+     */
+    protected File getBuildManifestFile() {
+        return new File(this.buildDirectory, "sass_manifest.properties");
+    }
+
+    /**
+     * Load the build manifest for the current configuration
+     */
+    protected BuildManifest loadBuildManifest(List<Entry<String, String>> templateLocations) {
+        return BuildManifest.load(getBuildManifestFile(), getOptionsHash(templateLocations), getOutputProfiles(), getLog());
+    }
+
+    /**
+     * Write the build manifest, failing to do so only costs a full compile in the next build
+     */
+    protected void saveBuildManifest(BuildManifest manifest) {
+        try {
+            manifest.save();
+        }
+        catch (final IOException e) {
+            getLog().warn("Failed to write SASS build manifest " + getBuildManifestFile(), e);
+        }
+    }
+
+    /**
+     * @return True if incremental is set and all directories imports are resolved against are known, see
+     * {@link #getImportLoadPaths()}
+     */
+    protected boolean isIncremental() {
+        if (!incremental) {
+            return false;
+        }
+        if (getImportLoadPaths() == null) {
+            getLog().warn("SASS imports can not be tracked, " + getUntrackedImportsReason() + ". Compiling all stylesheets.");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return The directories besides the template locations that Sass resolves imports against, in the
+     * order they are searched. Null if they can not be determined, see {@link #getUntrackedImportsReason()}.
+     */
+    protected List<File> getImportLoadPaths() {
+        final List<File> loadPaths = new ArrayList<File>();
+        if (this.useCompass) {
+            // Compass replaces load_paths with the sass directory of the project, its import paths and the frameworks
+            for (final String configFile : COMPASS_CONFIG_FILES) {
+                if (new File(configFile).isFile()) {
+                    return null;
+                }
+            }
+            final File sassDirectory = new File("sass").getAbsoluteFile();
+            if (sassDirectory.isDirectory()) {
+                loadPaths.add(sassDirectory);
+            }
+            return loadPaths;
+        }
+
+        final List<String> configured = getSassOptions().getStrings("load_paths");
+        if (configured == null) {
+            return null;
+        }
+        for (final String loadPath : configured) {
+            loadPaths.add(new File(loadPath).getAbsoluteFile());
+        }
+        return loadPaths;
+    }
+
+    /**
+     * @return Why {@link #getImportLoadPaths()} returns null
+     */
+    protected String getUntrackedImportsReason() {
+        return this.useCompass ? "the Compass project configuration in " + new File("").getAbsolutePath()
+                + " may add import paths" : "load_paths of sassOptions is no string or array of strings";
+    }
+
+    /**
+     * @return Resolver for imports that uses the load_paths of sassOptions, if known, and the template locations
+     * as load paths
+     */
+    protected ImportResolver createImportResolver(List<Entry<String, String>> templateLocations) {
+        final List<File> importLoadPaths = getImportLoadPaths();
+        final List<File> loadPaths = new ArrayList<File>();
+        if (importLoadPaths != null) {
+            loadPaths.addAll(importLoadPaths);
+        }
+        for (final Entry<String, String> location : templateLocations) {
+            loadPaths.add(new File(location.getKey()));
+        }
+        return new ImportResolver(loadPaths);
+    }
+
+    /**
+     * Build the script that loads rubygems, Sass and Compass. It only depends on gemPaths, gems and
+     * useCompass so runtimes that ran the same bootstrap script can be shared between executions.
+     * If there is a gem bundle index for the configuration (see cacheGemIndex) the gem directories
+     * and Compass frameworks are taken from it.
+     */
+    protected String buildBootstrapScript() {
+        return buildBootstrapScript(getGemBundleIndex(), !isLazyCompass());
+    }
+
+    /**
+     * @return The script that loads Compass into a runtime started without it, see lazyCompass
+     */
+    protected String getCompassScript() {
+        return buildCompassScript(getGemBundleIndex());
+    }
+
+    /**
+     * @param gemBundleIndex Index to load gems and frameworks from, null to resolve them
+     * @param includeCompass Load Compass if useCompass is set, otherwise it is loaded by {@link #getCompassScript()}
+     */
+    private String buildBootstrapScript(GemBundleIndex gemBundleIndex, boolean includeCompass) {
+        final StringBuilder sassScript = new StringBuilder();
 
         sassScript.append("require 'rubygems'\n");
 
         if (gemPaths.length > 0) {
             sassScript.append("env = { 'GEM_PATH' => [\n");
             for (final String gemPath : gemPaths) {
-                sassScript.append("    '").append(gemPath).append("',\n");
+                sassScript.append("    ").append(SassOptions.quote(gemPath)).append(",\n");
             }
 
             final String gemPath = System.getenv("GEM_PATH");
             if (gemPath != null) {
                 for (final String p : gemPath.split(File.pathSeparator)) {
-                    sassScript.append("    '").append(p).append("',\n");
+                    sassScript.append("    ").append(SassOptions.quote(p)).append(",\n");
                 }
             }
             sassScript.setLength(sassScript.length() - 2); // remove trailing comma
@@ -221,82 +1096,65 @@ public abstract class AbstractSassMojo extends AbstractMojo {
             sassScript.append("Gem.paths = env\n");
         }
 
+        if (gemBundleIndex == null) {
+            // the load path before gems are activated, see SassMavenPlugin.gem_load_paths
+            sassScript.append("$sass_maven_load_path = $LOAD_PATH.dup\n");
+        }
+        else if (!gemBundleIndex.getLoadPaths().isEmpty()) {
+            sassScript.append("$LOAD_PATH.unshift(\n");
+            for (final String loadPath : gemBundleIndex.getLoadPaths()) {
+                sassScript.append("    ").append(SassOptions.quote(loadPath)).append(",\n");
+            }
+            sassScript.setLength(sassScript.length() - 2); // remove trailing comma
+            sassScript.append(")\n");
+        }
+
         for (final String gem : gems) {
-            sassScript.append("require '").append(gem).append("'\n");
+            sassScript.append("require ").append(SassOptions.quote(gem)).append("\n");
         }
 
         sassScript.append("require 'sass/plugin'\n");
         sassScript.append("require 'java'\n");
 
         if (this.useCompass) {
-            log.info("Running with Compass enabled.");
-            sassScript.append("require 'compass'\n");
-            sassScript.append("require 'compass/exec'\n");
-            sassScript.append("Compass.add_project_configuration \n");
-            this.sassOptions.put("load_paths", "Compass.configuration.sass_load_paths");
-            // manually specify these paths
-            sassScript.append("Compass::Frameworks.register_directory('jar:'+ File.join(Compass.base_directory, 'frameworks/compass'))\n");
-            sassScript.append("Compass::Frameworks.register_directory('jar:'+ File.join(Compass.base_directory, 'frameworks/blueprint'))\n");
+            if (includeCompass) {
+                sassScript.append(buildCompassScript(gemBundleIndex));
+            }
+            else {
+                // keeps runtimes without Compass apart from those of executions that do not use it
+                sassScript.append("# Compass is loaded on demand\n");
+            }
         }
 
-        // Get all template locations from resources and set option 'template_location' and
-        // 'css_location' (to override default "./public/stylesheets/sass", "./public/stylesheets")
-        // remaining locations are added later with 'add_template_location'
-        final Iterator<Entry<String, String>> templateLocations = getTemplateLocations();
-        if (templateLocations.hasNext()) {
-            Entry<String, String> location = templateLocations.next();
-            sassOptions.put("template_location", "'" + location.getKey() + "'");
-            sassOptions.put("css_location", "'" + location.getValue() + "'");
-        }
+        return sassScript.toString();
+    }
 
-        //If not explicitly set place the cache location in the target dir
-        if (!this.sassOptions.containsKey("cache_location")) {
-            final File sassCacheDir = new File(this.buildDirectory, "sass_cache");
-            final String sassCacheDirStr = sassCacheDir.toString();
-            this.sassOptions.put("cache_location", "'" + FilenameUtils.separatorsToUnix(sassCacheDirStr) + "'");
-        }
-
-        //Add the plugin configuration options
-        sassScript.append("Sass::Plugin.options.merge!(\n");
-        for (final Iterator<Entry<String, String>> entryItr = this.sassOptions.entrySet().iterator(); entryItr.hasNext();) {
-            final Entry<String, String> optEntry = entryItr.next();
-            final String opt = optEntry.getKey();
-            final String value = optEntry.getValue();
-            sassScript.append("    :").append(opt).append(" => ").append(value);
-            if (entryItr.hasNext()) {
-                sassScript.append(",");
-            }
-            sassScript.append("\n");
+    /**
+     * @param gemBundleIndex Index to register the frameworks from, null to resolve them
+     */
+    private String buildCompassScript(GemBundleIndex gemBundleIndex) {
+        final StringBuilder sassScript = new StringBuilder();
+
+        sassScript.append("require 'compass'\n");
+        sassScript.append("require 'compass/exec'\n");
+        sassScript.append("Compass.add_project_configuration \n");
+        if (gemBundleIndex == null) {
+            // manually specify these paths
+            sassScript.append("Compass::Frameworks.register_directory('jar:'+ File.join(Compass.base_directory, 'frameworks/compass'))\n");
+            sassScript.append("Compass::Frameworks.register_directory('jar:'+ File.join(Compass.base_directory, 'frameworks/blueprint'))\n");
         }
-        sassScript.append(")\n");
-
-        // add remaining template locations with 'add_template_location' (need to be done after options.merge)
-        while (templateLocations.hasNext()) {
-            Entry<String, String> location = templateLocations.next();
-            sassScript.append("Sass::Plugin.add_template_location('")
-                .append(location.getKey())
-                .append("', '")
-                .append(location.getValue())
-                .append("')\n");
-        }
-
-        // set up sass compiler callback for reporting
-        sassScript.append("Sass::Plugin.on_compilation_error {|error, template, css| $compiler_callback.compilationError(error.message, template, css) }\n");
-        sassScript.append("Sass::Plugin.on_updated_stylesheet {|template, css| $compiler_callback.updatedStylesheeet(template, css) }\n");
-        sassScript.append("Sass::Plugin.on_template_modified {|template| $compiler_callback.templateModified(template) }\n");
-        sassScript.append("Sass::Plugin.on_template_created {|template| $compiler_callback.templateCreated(template) }\n");
-        sassScript.append("Sass::Plugin.on_template_deleted {|template| $compiler_callback.templateDeleted(template) }\n");
-
-        // make ruby give use some debugging info when requested
-        if (log.isDebugEnabled()) {
-            sassScript.append("require 'pp'\npp Sass::Plugin.options\n");
-            if (useCompass) {
-                sassScript.append("pp Compass::configuration\n");
+        else {
+            for (final Entry<String, String> framework : gemBundleIndex.getFrameworks().entrySet()) {
+                final String name = SassOptions.quote(framework.getKey());
+                sassScript.append("Compass::Frameworks.register(").append(name).append(", ")
+                        .append(SassOptions.quote(framework.getValue())).append(") unless Compass::Frameworks[")
+                        .append(name).append("]\n");
             }
         }
+        return sassScript.toString();
     }
 
-    private Iterator<Entry<String, String>> getTemplateLocations() {
+    protected List<Entry<String, String>> getTemplateLocations() throws MojoExecutionException {
         final Log log = getLog();
         
         List<Resource> r = this.resources;
@@ -314,17 +1172,105 @@ public abstract class AbstractSassMojo extends AbstractMojo {
             }
             resource.relativeOutputDirectory = this.relativeOutputDirectory;
             resource.destination = this.destination;
+            resource.outputProfiles = this.outputProfiles;
             r = ImmutableList.of(resource);
         }
         
-        List<Entry<String, String>> locations = new ArrayList<Entry<String, String>>();
-        for (final Resource source : r) {
-            for (final Entry<String, String> entry : source.getDirectoriesAndDestinations().entrySet()) {
-                log.info("Queueing SASS Template for compile: " + entry.getKey() + " => " + entry.getValue());
-                locations.add(entry);
+        final DirectoryScanCache scanCache = this.cacheDirectoryScan
+                ? DirectoryScanCache.load(new File(this.buildDirectory, "sass_scan_cache.properties"))
+                : null;
+
+        // scan the resources concurrently, the results are kept in resource order
+        final List<Future<Map<String, String>>> scans = new ArrayList<Future<Map<String, String>>>(r.size());
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(r.size(), Runtime.getRuntime().availableProcessors())),
+                new ThreadFactoryBuilder().setNameFormat("sass-scanner-%d").setDaemon(true).build());
+        try {
+            for (final Resource source : r) {
+                scans.add(executor.submit(new Callable<Map<String, String>>() {
+                    @Override
+                    public Map<String, String> call() {
+                        return source.getDirectoriesAndDestinations(scanCache);
+                    }
+                }));
+            }
+
+            List<Entry<String, String>> locations = new ArrayList<Entry<String, String>>();
+            outputProfileLocations.clear();
+            for (int i = 0; i < scans.size(); i++) {
+                final List<OutputProfile> resourceProfiles = r.get(i).getOutputProfiles();
+                final Map<String, String> scan;
+                try {
+                    scan = Futures.getUnchecked(scans.get(i));
+                }
+                catch (final UncheckedExecutionException e) {
+                    // e.g. an unreadable directory or an invalid %regex[] pattern
+                    throw new MojoExecutionException(e.getCause().getMessage(), e.getCause());
+                }
+                for (final Entry<String, String> entry : scan.entrySet()) {
+                    if (!resourceProfiles.isEmpty()) {
+                        outputProfileLocations.put(entry.getValue(), resourceProfiles);
+                    }
+                    final String message = "Queueing SASS Template for compile: " + entry.getKey() + " => " + entry.getValue();
+                    if (summaryLog) {
+                        log.debug(message);
+                    }
+                    else {
+                        log.info(message);
+                    }
+                    locations.add(entry);
+                }
             }
+            if (summaryLog) {
+                log.info("Queued " + locations.size() + " SASS template location(s) for compile");
+            }
+
+            if (scanCache != null) {
+                try {
+                    scanCache.save();
+                }
+                catch (final IOException e) {
+                    log.warn("Failed to write SASS directory scan cache", e);
+                }
+            }
+            return locations;
+        }
+        finally {
+            executor.shutdown();
         }
-        return locations.iterator();
     }
 
+    /**
+     * @return The entry of the longest location that contains the path, null if there is none
+     */
+    static <V> Entry<String, V> findLocation(Map<String, V> locations, String path) {
+        Entry<String, V> found = null;
+        for (final Entry<String, V> location : locations.entrySet()) {
+            if (path.startsWith(location.getKey() + "/")
+                    && (found == null || location.getKey().length() > found.getKey().length())) {
+                found = location;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return Size and modification time of the file, the number of files and the latest modification
+     * time for a directory
+     */
+    static String getModificationStamp(File file) {
+        if (file == null || !file.exists()) {
+            return "missing";
+        }
+        if (file.isFile()) {
+            return file.length() + "@" + file.lastModified();
+        }
+        int count = 0;
+        long lastModified = 0;
+        for (final Iterator<File> fileItr = FileUtils.iterateFiles(file, null, true); fileItr.hasNext();) {
+            count++;
+            lastModified = Math.max(lastModified, fileItr.next().lastModified());
+        }
+        return count + " files@" + lastModified;
+    }
 }
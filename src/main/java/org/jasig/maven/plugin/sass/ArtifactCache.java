@@ -0,0 +1,39 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import java.io.IOException;
+
+/**
+ * Build cache for compiled stylesheets shared between build agents, see
+ * {@link UpdateStylesheetsMojo#remoteCache}. Entries are addressed by a key that covers the
+ * content of the template and its imports and everything else that influences the output,
+ * so an entry never has to be invalidated.
+ */
+public interface ArtifactCache {
+    /**
+     * @return The content stored under the key, null if there is none
+     */
+    byte[] get(String key) throws IOException;
+
+    /**
+     * Store the content under the key, replaces an existing entry
+     */
+    void put(String key, byte[] content) throws IOException;
+}
@@ -0,0 +1,549 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.logging.Log;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+/**
+ * Persistent record of the inputs and outputs of the last successful compile of each stylesheet. The
+ * outputs are the css file and the css files of its output profiles. The input hash of a stylesheet covers the content of the template and of every file it transitively
+ * imports, the manifest as a whole is only valid for one set of effective options. Content hashes of
+ * files are cached together with their size and modification time, so files that were not touched
+ * are neither read nor parsed again.
+ * <br/>
+ * The imports of every template are kept in a {@link DependencyIndex}, so only stylesheets that depend
+ * on a changed file are checked further. The index is persisted as part of the manifest and updated
+ * whenever a template is parsed again. The import names of the templates are kept as well, so a full
+ * check resolves them again without parsing and notices when a created or deleted file changes what
+ * an import refers to.
+ * <br/>
+ * Stylesheets that failed to compile are remembered so the next build can compile them first, see
+ * {@link #prioritize(List)}.
+ */
+class BuildManifest {
+    private static final String OPTIONS_KEY = "options";
+    private static final String FILE_PREFIX = "file.";
+    private static final String STYLESHEET_PREFIX = "stylesheet.";
+    private static final String FAILED_PREFIX = "failed.";
+    private static final String IMPORTS_PREFIX = "imports.";
+    private static final String SEPARATOR = "\t";
+    private static final String MISSING = "missing";
+
+    private final File manifestFile;
+    private final String optionsHash;
+    private final Map<String, List<OutputProfile>> outputProfiles;
+    private final Map<String, FileState> files = new HashMap<String, FileState>();
+    private final Map<String, StylesheetState> stylesheets = new HashMap<String, StylesheetState>();
+    private final DependencyIndex dependencyIndex = new DependencyIndex();
+    private final Map<String, List<String>> importNames = new HashMap<String, List<String>>();
+    private final Map<String, String> pendingInputHashes = new HashMap<String, String>();
+    private final Map<String, String> currentStylesheets = new HashMap<String, String>();
+    private final Map<String, String> failedStylesheets = new HashMap<String, String>();
+    private Set<String> affected = new HashSet<String>();
+    private boolean dirty;
+
+    private BuildManifest(File manifestFile, String optionsHash, Map<String, List<OutputProfile>> outputProfiles) {
+        this.manifestFile = manifestFile;
+        this.optionsHash = optionsHash;
+        this.outputProfiles = outputProfiles;
+    }
+
+    /**
+     * Load the manifest of stylesheets without output profiles, see {@link #load(File, String, Map, Log)}
+     */
+    static BuildManifest load(File manifestFile, String optionsHash, Log log) {
+        return load(manifestFile, optionsHash, Collections.<String, List<OutputProfile>>emptyMap(), log);
+    }
+
+    /**
+     * Load the manifest, if it does not exist, can not be read or was written for other options an empty manifest is returned.
+     *
+     * @param outputProfiles css location to the output profiles of the stylesheets below it, covered by the options hash
+     */
+    static BuildManifest load(File manifestFile, String optionsHash, Map<String, List<OutputProfile>> outputProfiles, Log log) {
+        final BuildManifest manifest = new BuildManifest(manifestFile, optionsHash, outputProfiles);
+        if (!manifestFile.isFile()) {
+            return manifest;
+        }
+
+        final Properties properties = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(manifestFile);
+            properties.load(in);
+        }
+        catch (final IOException e) {
+            log.warn("Failed to read SASS build manifest " + manifestFile + ", compiling all stylesheets", e);
+            return manifest;
+        }
+        finally {
+            IOUtils.closeQuietly(in);
+        }
+
+        if (!optionsHash.equals(properties.getProperty(OPTIONS_KEY))) {
+            log.info("SASS configuration changed, compiling all stylesheets");
+            return manifest;
+        }
+
+        for (final String key : properties.stringPropertyNames()) {
+            final String[] value = properties.getProperty(key).split(SEPARATOR, -1);
+            if (key.startsWith(FILE_PREFIX) && value.length >= 3) {
+                final String path = key.substring(FILE_PREFIX.length());
+                manifest.files.put(path, new FileState(Long.parseLong(value[0]), Long.parseLong(value[1]), value[2]));
+                manifest.dependencyIndex.setImports(path, new ArrayList<String>(Arrays.asList(value).subList(3, value.length)));
+            }
+            else if (key.startsWith(STYLESHEET_PREFIX) && value.length >= 3 && value.length % 2 == 1) {
+                final Map<String, String> profileHashes = new TreeMap<String, String>();
+                for (int i = 3; i < value.length; i += 2) {
+                    profileHashes.put(value[i], value[i + 1]);
+                }
+                manifest.stylesheets.put(key.substring(STYLESHEET_PREFIX.length()),
+                        new StylesheetState(value[0], value[1], value[2], profileHashes));
+            }
+            else if (key.startsWith(FAILED_PREFIX)) {
+                manifest.failedStylesheets.put(key.substring(FAILED_PREFIX.length()), properties.getProperty(key));
+            }
+            else if (key.startsWith(IMPORTS_PREFIX)) {
+                manifest.importNames.put(key.substring(IMPORTS_PREFIX.length()),
+                        value.length == 1 && value[0].isEmpty() ? new ArrayList<String>() : Arrays.asList(value));
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Check all known files for changes.
+     *
+     * @param stylesheets Template to css file pairs
+     * @return The pairs whose inputs changed since their last successful compile or whose outputs are missing or were modified
+     */
+    List<Entry<String, String>> getStaleStylesheets(List<Entry<String, String>> stylesheets, ImportResolver importResolver)
+            throws IOException {
+        return getStaleStylesheets(stylesheets, null, importResolver);
+    }
+
+    /**
+     * Check only the stylesheets that depend on the given files, as reported by a file watcher.
+     *
+     * @param stylesheets Template to css file pairs
+     * @param changedFiles Files that changed, null to check all known files and the outputs
+     * @return The pairs whose inputs changed since their last successful compile
+     */
+    List<Entry<String, String>> getStaleStylesheets(List<Entry<String, String>> stylesheets, Collection<String> changedFiles,
+            ImportResolver importResolver) throws IOException {
+        currentStylesheets.clear();
+        for (final Entry<String, String> stylesheet : stylesheets) {
+            currentStylesheets.put(stylesheet.getValue(), stylesheet.getKey());
+        }
+
+        final Set<String> changed = new HashSet<String>();
+        for (final String file : changedFiles != null ? changedFiles : new ArrayList<String>(files.keySet())) {
+            if (refresh(file, importResolver)) {
+                changed.add(file);
+            }
+        }
+        if (changedFiles == null) {
+            changed.addAll(resolveImportsAgain(importResolver));
+        }
+        affected = dependencyIndex.getDependents(changed);
+
+        final List<Entry<String, String>> stale = new ArrayList<Entry<String, String>>();
+        for (final Entry<String, String> stylesheet : stylesheets) {
+            final String template = stylesheet.getKey();
+            final String css = stylesheet.getValue();
+            final StylesheetState state = this.stylesheets.get(css);
+
+            final boolean outputChanged = changedFiles == null && state != null && isOutputChanged(css, state);
+            if (state != null && state.template.equals(template) && !affected.contains(template) && !outputChanged) {
+                continue;
+            }
+
+            final String inputHash = getInputHash(template, importResolver);
+            pendingInputHashes.put(css, inputHash);
+            if (state == null || !state.template.equals(template) || !state.inputHash.equals(inputHash) || outputChanged) {
+                stale.add(stylesheet);
+            }
+        }
+        return stale;
+    }
+
+    /**
+     * Order stylesheets returned by the last check for compilation: first those that failed in the last
+     * build, then those affected by a changed file, then the others (new stylesheets, modified outputs).
+     * Within each group stylesheets importing more files come first, so errors show up early and the
+     * longest compiles are started first. The order within equal stylesheets is kept.
+     */
+    List<Entry<String, String>> prioritize(List<Entry<String, String>> stale) {
+        final Map<String, Integer> groups = new HashMap<String, Integer>();
+        final Map<String, Integer> fanOuts = new HashMap<String, Integer>();
+        for (final Entry<String, String> stylesheet : stale) {
+            final String template = stylesheet.getKey();
+            groups.put(stylesheet.getValue(), failedStylesheets.containsKey(stylesheet.getValue()) ? 0 : affected.contains(template) ? 1 : 2);
+            fanOuts.put(template, dependencyIndex.getDependencies(Collections.singleton(template)).size());
+        }
+
+        final List<Entry<String, String>> prioritized = new ArrayList<Entry<String, String>>(stale);
+        Collections.sort(prioritized, new Comparator<Entry<String, String>>() {
+            @Override
+            public int compare(Entry<String, String> a, Entry<String, String> b) {
+                final int group = groups.get(a.getValue()).compareTo(groups.get(b.getValue()));
+                if (group != 0) {
+                    return group;
+                }
+                return fanOuts.get(b.getKey()).compareTo(fanOuts.get(a.getKey()));
+            }
+        });
+        return prioritized;
+    }
+
+    /**
+     * Record the result of compiling the given stylesheets. Stylesheets that failed to compile are forgotten
+     * so they are compiled again by the next build.
+     *
+     * @param skippedStylesheets css files of stylesheets that were not compiled after all, their state is dropped
+     *            as their inputs have already been refreshed, so they are compiled by the next build
+     */
+    void stylesheetsCompiled(List<Entry<String, String>> compiled, Collection<String> failedTemplates,
+            Collection<String> skippedStylesheets) throws IOException {
+        for (final Entry<String, String> stylesheet : compiled) {
+            final String template = stylesheet.getKey();
+            final String css = stylesheet.getValue();
+            final File cssFile = new File(css);
+
+            dirty = true;
+            if (skippedStylesheets.contains(css)) {
+                stylesheets.remove(css);
+                continue;
+            }
+
+            if (failedTemplates.contains(template) || !cssFile.isFile()) {
+                stylesheets.remove(css);
+                failedStylesheets.put(css, template);
+                continue;
+            }
+            failedStylesheets.remove(css);
+
+            // the outputs changed, drop the cached state so they are hashed again
+            files.remove(css);
+            final String outputHash = getFileState(cssFile, null).hash;
+            final Map<String, String> profileHashes = new TreeMap<String, String>();
+            for (final String profileOutput : getProfileOutputs(css)) {
+                final File profileFile = new File(profileOutput);
+                files.remove(profileOutput);
+                if (profileFile.isFile()) {
+                    profileHashes.put(profileOutput, getFileState(profileFile, null).hash);
+                }
+            }
+            stylesheets.put(css, new StylesheetState(template, pendingInputHashes.get(css), outputHash, profileHashes));
+        }
+    }
+
+    /**
+     * @return true if the css file or the css file of one of its output profiles is missing or differs from
+     * what the last compile wrote
+     */
+    private boolean isOutputChanged(String css, StylesheetState state) throws IOException {
+        final File cssFile = new File(css);
+        if (!cssFile.isFile() || !getFileState(cssFile, null).hash.equals(state.outputHash)) {
+            return true;
+        }
+        for (final String profileOutput : getProfileOutputs(css)) {
+            final File profileFile = new File(profileOutput);
+            final String profileHash = state.profileHashes.get(profileOutput);
+            if (profileHash == null || !profileFile.isFile() || !getFileState(profileFile, null).hash.equals(profileHash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The css files of the output profiles of the css file
+     */
+    private List<String> getProfileOutputs(String css) {
+        final Entry<String, List<OutputProfile>> location = AbstractSassMojo.findLocation(outputProfiles, css);
+        if (location == null) {
+            return Collections.emptyList();
+        }
+        final List<String> profileOutputs = new ArrayList<String>(location.getValue().size());
+        for (final OutputProfile outputProfile : location.getValue()) {
+            profileOutputs.add(outputProfile.getOutputFile(css));
+        }
+        return profileOutputs;
+    }
+
+    /**
+     * Forget the state of stylesheets whose compile was aborted as a whole, e.g. because the engine failed.
+     * Their inputs were already refreshed by the last check, they are compiled again by the next one.
+     */
+    void stylesheetsFailed(List<Entry<String, String>> failed) {
+        for (final Entry<String, String> stylesheet : failed) {
+            stylesheets.remove(stylesheet.getValue());
+            failedStylesheets.put(stylesheet.getValue(), stylesheet.getKey());
+        }
+        dirty = true;
+    }
+
+    /**
+     * Write the manifest if anything changed. State of files that are no longer used by any of the
+     * stylesheets passed to the last check is dropped.
+     */
+    void save() throws IOException {
+        final Set<String> used = dependencyIndex.getDependencies(currentStylesheets.values());
+        used.addAll(currentStylesheets.keySet());
+        for (final StylesheetState state : stylesheets.values()) {
+            used.addAll(state.profileHashes.keySet());
+        }
+        if (!dirty && used.containsAll(files.keySet()) && currentStylesheets.keySet().containsAll(stylesheets.keySet())
+                && currentStylesheets.keySet().containsAll(failedStylesheets.keySet())) {
+            return;
+        }
+
+        final Properties properties = new Properties();
+        properties.setProperty(OPTIONS_KEY, optionsHash);
+        for (final Iterator<Entry<String, FileState>> fileItr = files.entrySet().iterator(); fileItr.hasNext();) {
+            final Entry<String, FileState> file = fileItr.next();
+            if (!used.contains(file.getKey())) {
+                fileItr.remove();
+                dependencyIndex.remove(file.getKey());
+                importNames.remove(file.getKey());
+                continue;
+            }
+            final FileState state = file.getValue();
+            final List<Object> value = new ArrayList<Object>();
+            value.add(state.lastModified);
+            value.add(state.length);
+            value.add(state.hash);
+            value.addAll(dependencyIndex.getImports(file.getKey()));
+            properties.setProperty(FILE_PREFIX + file.getKey(), Joiner.on(SEPARATOR).join(value));
+            final List<String> names = importNames.get(file.getKey());
+            if (names != null) {
+                properties.setProperty(IMPORTS_PREFIX + file.getKey(), Joiner.on(SEPARATOR).join(names));
+            }
+        }
+        for (final Iterator<Entry<String, StylesheetState>> stylesheetItr = stylesheets.entrySet().iterator(); stylesheetItr.hasNext();) {
+            final Entry<String, StylesheetState> stylesheet = stylesheetItr.next();
+            if (!currentStylesheets.containsKey(stylesheet.getKey())) {
+                stylesheetItr.remove();
+                continue;
+            }
+            final StylesheetState state = stylesheet.getValue();
+            final List<String> value = new ArrayList<String>();
+            value.add(state.template);
+            value.add(state.inputHash);
+            value.add(state.outputHash);
+            for (final Entry<String, String> profileHash : state.profileHashes.entrySet()) {
+                value.add(profileHash.getKey());
+                value.add(profileHash.getValue());
+            }
+            properties.setProperty(STYLESHEET_PREFIX + stylesheet.getKey(), Joiner.on(SEPARATOR).join(value));
+        }
+        for (final Iterator<Entry<String, String>> failedItr = failedStylesheets.entrySet().iterator(); failedItr.hasNext();) {
+            final Entry<String, String> failed = failedItr.next();
+            if (!currentStylesheets.containsKey(failed.getKey())) {
+                failedItr.remove();
+                continue;
+            }
+            properties.setProperty(FAILED_PREFIX + failed.getKey(), failed.getValue());
+        }
+
+        Files.createParentDirs(manifestFile);
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(manifestFile);
+            properties.store(out, "sass-maven-plugin build manifest");
+        }
+        finally {
+            IOUtils.closeQuietly(out);
+        }
+        dirty = false;
+    }
+
+    /**
+     * Bring the recorded state of a file up to date
+     *
+     * @return true if the content of the file changed, it was created or deleted
+     */
+    private boolean refresh(String path, ImportResolver importResolver) throws IOException {
+        final File file = new File(path);
+        final FileState previous = files.get(path);
+        if (!file.isFile()) {
+            files.remove(path);
+            dependencyIndex.remove(path);
+            importNames.remove(path);
+            dirty |= previous != null;
+            return true;
+        }
+        final FileState current = getFileState(file, importResolver);
+        return previous == null || !previous.hash.equals(current.hash);
+    }
+
+    /**
+     * Resolve the recorded import names of all known templates again, without reading the templates. A
+     * created or deleted file changes what an import refers to if it shadows or uncovers another file.
+     *
+     * @return The templates whose resolved imports changed
+     */
+    private Set<String> resolveImportsAgain(ImportResolver importResolver) throws IOException {
+        final Set<String> changed = new HashSet<String>();
+        for (final String path : new ArrayList<String>(files.keySet())) {
+            if (!ImportResolver.isTemplate(path)) {
+                continue;
+            }
+            final File file = new File(path);
+            List<String> names = importNames.get(path);
+            if (names == null) {
+                // recorded by a version that did not keep the import names
+                names = ImportResolver.getImportNames(Files.toString(file, Charsets.UTF_8));
+                importNames.put(path, names);
+                dirty = true;
+            }
+
+            final List<String> imports = importResolver.resolveImports(file.getParentFile(), names);
+            if (!imports.equals(dependencyIndex.getImports(path))) {
+                dependencyIndex.setImports(path, imports);
+                changed.add(path);
+                dirty = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Hash over the content of the template and all files it transitively imports
+     */
+    private String getInputHash(String template, ImportResolver importResolver) throws IOException {
+        final Hasher hasher = Hashing.sha1().newHasher();
+        for (final Entry<String, String> input : getInputContentHashes(template, importResolver).entrySet()) {
+            hasher.putString(input.getKey(), Charsets.UTF_8);
+            hasher.putString(input.getValue(), Charsets.UTF_8);
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * @return Content hash of the template and of all files it transitively imports by path, sorted by path
+     */
+    SortedMap<String, String> getInputContentHashes(String template, ImportResolver importResolver) throws IOException {
+        final Set<String> inputs = new TreeSet<String>();
+        collectInputs(template, importResolver, inputs);
+
+        final SortedMap<String, String> hashes = new TreeMap<String, String>();
+        for (final String input : inputs) {
+            final File file = new File(input);
+            hashes.put(input, file.isFile() ? getFileState(file, importResolver).hash : MISSING);
+        }
+        return hashes;
+    }
+
+    private void collectInputs(String path, ImportResolver importResolver, Set<String> inputs) throws IOException {
+        if (!inputs.add(path)) {
+            return;
+        }
+        final File file = new File(path);
+        if (!file.isFile()) {
+            return;
+        }
+        getFileState(file, importResolver);
+        for (final String imported : dependencyIndex.getImports(path)) {
+            collectInputs(imported, importResolver, inputs);
+        }
+    }
+
+    /**
+     * Get the state of a file, only reading it if size or modification time changed since it was last recorded.
+     * The imports of SASS templates are updated in the dependency index when the file is read.
+     *
+     * @param importResolver Resolver used to find the imports of SASS templates, null to not resolve imports
+     */
+    private FileState getFileState(File file, ImportResolver importResolver) throws IOException {
+        final String path = ImportResolver.toPath(file);
+
+        FileState state = files.get(path);
+        if (state != null && state.lastModified == file.lastModified() && state.length == file.length()) {
+            return state;
+        }
+
+        if (importResolver != null && ImportResolver.isTemplate(file.getName())) {
+            final List<String> names = ImportResolver.getImportNames(Files.toString(file, Charsets.UTF_8));
+            importNames.put(path, names);
+            dependencyIndex.setImports(path, importResolver.resolveImports(file.getParentFile(), names));
+        }
+        state = new FileState(file.lastModified(), file.length(), Files.hash(file, Hashing.sha1()).toString());
+        files.put(path, state);
+        dirty = true;
+        return state;
+    }
+
+    private static final class FileState {
+        final long lastModified;
+        final long length;
+        final String hash;
+
+        FileState(long lastModified, long length, String hash) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.hash = hash;
+        }
+    }
+
+    private static final class StylesheetState {
+        final String template;
+        final String inputHash;
+        final String outputHash;
+        final Map<String, String> profileHashes;
+
+        StylesheetState(String template, String inputHash, String outputHash, Map<String, String> profileHashes) {
+            this.template = template;
+            this.inputHash = inputHash;
+            this.outputHash = outputHash;
+            this.profileHashes = profileHashes;
+        }
+    }
+}
@@ -18,17 +18,76 @@
  */
 package org.jasig.maven.plugin.sass;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.apache.maven.plugin.logging.Log;
 
 /**
  * Callback to bind <a href="http://sass-lang.com/docs/yardoc/Sass/Plugin/Compiler.html">Sass::Plugin::Compiler</a>
+ * <br/>
+ * A single callback may be shared by several runtimes compiling concurrently, errors of all of them are collected.
+ * <br/>
+ * Stylesheets compiled one by one are announced with {@link #templateStarted(String, String)}, for those
+ * {@link TemplateMetrics} are recorded.
+ * <br/>
+ * In summary mode nothing is logged while compiling: per template lines are queued for the debug log
+ * and errors are kept, both are written by {@link #logSummary()} together with the counts of the compile.
+ * <br/>
+ * In fail fast mode the first compilation error cancels the compile, engines check {@link #isCancelled()}
+ * before each stylesheet and report the stylesheets they no longer compile with {@link #templateSkipped(String, String)}.
+ * <br/>
+ * Written stylesheets are pushed to a {@link LiveReloadServer} as soon as they are reported, if one is set.
  */
 public class CompilerCallback {
-    private boolean compileError;
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+    private final Set<String> failedTemplates = Collections.synchronizedSet(new HashSet<String>());
+    private final Set<String> changedStylesheets = Collections.synchronizedSet(new HashSet<String>());
+    private final Set<String> skippedStylesheets = Collections.synchronizedSet(new HashSet<String>());
+    private final ConcurrentMap<String, TemplateMetrics> metrics = new ConcurrentHashMap<String, TemplateMetrics>();
+    private final Queue<String> events = new ConcurrentLinkedQueue<String>();
+    private final Queue<String> errorEvents = new ConcurrentLinkedQueue<String>();
+    private final AtomicInteger written = new AtomicInteger();
+    private final AtomicInteger unchanged = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger detected = new AtomicInteger();
+    private volatile boolean compileError;
+    private volatile boolean cancelled;
+    private volatile HeapMetrics heapMetrics;
+    private volatile LiveReloadServer liveReloadServer;
+    private final boolean summary;
+    private final boolean failFast;
     private Log log;
 
     public CompilerCallback(Log log) {
+        this(log, false);
+    }
+
+    /**
+     * @param summary Buffer the log lines and only write a summary with {@link #logSummary()}
+     */
+    public CompilerCallback(Log log, boolean summary) {
+        this(log, summary, false);
+    }
+
+    /**
+     * @param summary Buffer the log lines and only write a summary with {@link #logSummary()}
+     * @param failFast Cancel the compile on the first compilation error, which is logged right away
+     */
+    public CompilerCallback(Log log, boolean summary, boolean failFast) {
         this.log = log;
+        this.summary = summary;
+        this.failFast = failFast;
     }
 
     /**
@@ -36,39 +95,257 @@ public class CompilerCallback {
      * @see <a href="http://sass-lang.com/docs/yardoc/Sass/Plugin/Compiler.html#on_compilation_error-instance_method">on_compilation_error</a>
      */
     public void compilationError(String error, String template, String css) {
-        log.error("Compilation of template " + template + " failed: " + error);
+        final String message = "Compilation of template " + template + " failed: " + error;
+        if (summary && !failFast) {
+            errorEvents.add(message);
+        }
+        else {
+            log.error(message);
+        }
+        if (failFast) {
+            cancel();
+        }
+        failed.incrementAndGet();
+        errors.add(template + ": " + error);
+        failedTemplates.add(template);
         compileError = true;
+
+        final TemplateMetrics templateMetrics = metrics.get(css);
+        if (templateMetrics != null) {
+            templateMetrics.failed(System.nanoTime());
+        }
+    }
+
+    /**
+     * Called before the template is compiled into the css file
+     */
+    public void templateStarted(String template, String css) {
+        metrics.put(css, new TemplateMetrics(template, css, System.nanoTime()));
+    }
+
+    /**
+     * Called instead of {@link #templateStarted(String, String)} for stylesheets that are not compiled
+     * because the compile was cancelled
+     */
+    public void templateSkipped(String template, String css) {
+        skippedStylesheets.add(css);
+        skipped.incrementAndGet();
+        event("    -- " + template + " => " + css + " (skipped)");
+    }
+
+    /**
+     * Notify the clients of the server of each stylesheet written with new content
+     */
+    void setLiveReloadServer(LiveReloadServer liveReloadServer) {
+        this.liveReloadServer = liveReloadServer;
+    }
+
+    /**
+     * Called by the engine with the heap use of the JVM it compiled in
+     */
+    public void heapMeasured(HeapMetrics heapMetrics) {
+        this.heapMetrics = heapMetrics;
+    }
+
+    /**
+     * Stop compiling the remaining stylesheets
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return true if the remaining stylesheets should not be compiled anymore
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Called with the time spent in a phase of compiling the stylesheet currently compiled into the css file
+     *
+     * @param phase One of {@link TemplateMetrics#PARSE}, {@link TemplateMetrics#IMPORTS} or {@link TemplateMetrics#COMPASS}
+     */
+    public void templatePhase(String css, String phase, long nanos) {
+        final TemplateMetrics templateMetrics = metrics.get(css);
+        if (templateMetrics != null) {
+            templateMetrics.addPhase(phase, nanos);
+        }
+    }
+
+    /**
+     * Called with the bytes allocated while compiling into the css file, see {@link TemplateGuard}
+     */
+    public void templateAllocated(String css, long bytes) {
+        final TemplateMetrics templateMetrics = metrics.get(css);
+        if (templateMetrics != null) {
+            templateMetrics.allocated(bytes);
+        }
+    }
+
+    /**
+     * Called when the Sass cache was asked for a parsed template while compiling into the css file
+     */
+    public void cacheAccess(String css, boolean hit) {
+        final TemplateMetrics templateMetrics = metrics.get(css);
+        if (templateMetrics != null) {
+            templateMetrics.cacheAccess(hit);
+        }
+    }
+
+    /**
+     * @see <a href="http://sass-lang.com/docs/yardoc/Sass/Plugin/Compiler.html#on_updating_stylesheet-instance_method">on_updating_stylesheet</a>
+     */
+    public void updatingStylesheet(String template, String css) {
+        final TemplateMetrics templateMetrics = metrics.get(css);
+        if (templateMetrics != null) {
+            templateMetrics.rendered(System.nanoTime());
+        }
     }
 
     /**
      * @see <a href="http://sass-lang.com/docs/yardoc/Sass/Plugin/Compiler.html#on_updated_stylesheet-instance_method">on_updated_stylesheet</a>
      */
     public void updatedStylesheeet(String template, String css) {
-        log.info("    >> " + template + " => " + css);
+        updatedStylesheeet(template, css, true);
+    }
+
+    /**
+     * @param changed False if the css file already had the compiled content and was left untouched
+     * @see <a href="http://sass-lang.com/docs/yardoc/Sass/Plugin/Compiler.html#on_updated_stylesheet-instance_method">on_updated_stylesheet</a>
+     */
+    public void updatedStylesheeet(String template, String css, boolean changed) {
+        final TemplateMetrics templateMetrics = metrics.get(css);
+        if (templateMetrics != null) {
+            templateMetrics.written(System.nanoTime());
+        }
+        if (changed) {
+            final LiveReloadServer server = liveReloadServer;
+            if (server != null) {
+                server.stylesheetChanged(css);
+            }
+            changedStylesheets.add(css);
+            written.incrementAndGet();
+            event("    >> " + template + " => " + css);
+        }
+        else {
+            unchanged.incrementAndGet();
+            event("    == " + template + " => " + css + " (unchanged)");
+        }
     }
 
     /**
      * @see <a href="http://sass-lang.com/docs/yardoc/Sass/Plugin/Compiler.html#on_template_modified-instance_method">on_template_modified</a>
      */
     public void templateModified(String template) {
-        log.info("Change File detected " + template);
+        detected.incrementAndGet();
+        event("Change File detected " + template);
     }
 
     /**
      * @see <a href="http://sass-lang.com/docs/yardoc/Sass/Plugin/Compiler.html#on_template_created-instance_method">on_template_created</a>
      */
     public void templateCreated(String template) {
-        log.info("New File detected " + template);
+        detected.incrementAndGet();
+        event("New File detected " + template);
     }
 
     /**
      * @see <a href="http://sass-lang.com/docs/yardoc/Sass/Plugin/Compiler.html#on_template_deleted-instance_method">on_template_deleted</a>
      */
     public void templateDeleted(String template) {
-        log.info("Delete File detected " + template);
+        detected.incrementAndGet();
+        event("Delete File detected " + template);
+    }
+
+    /**
+     * Write the buffered log lines and the counts since the last summary, does nothing unless in summary mode
+     */
+    public void logSummary() {
+        if (!summary) {
+            return;
+        }
+
+        for (String event = events.poll(); event != null; event = events.poll()) {
+            log.debug(event);
+        }
+        for (String error = errorEvents.poll(); error != null; error = errorEvents.poll()) {
+            log.error(error);
+        }
+
+        final int writtenCount = written.getAndSet(0);
+        final int unchangedCount = unchanged.getAndSet(0);
+        final int failedCount = failed.getAndSet(0);
+        final int skippedCount = skipped.getAndSet(0);
+        final int detectedCount = detected.getAndSet(0);
+        if (writtenCount + unchangedCount + failedCount + skippedCount + detectedCount == 0) {
+            return;
+        }
+        log.info("SASS: " + writtenCount + " written, " + unchangedCount + " unchanged, " + failedCount + " failed"
+                + (skippedCount > 0 ? ", " + skippedCount + " skipped" : "")
+                + (detectedCount > 0 ? ", " + detectedCount + " template change(s) detected" : ""));
+    }
+
+    private void event(String message) {
+        if (!summary) {
+            log.info(message);
+        }
+        else if (log.isDebugEnabled()) {
+            events.add(message);
+        }
     }
 
     public boolean hadError() {
         return compileError;
     }
+
+    /**
+     * @return The reported compilation errors as "template: message"
+     */
+    public List<String> getErrors() {
+        synchronized (errors) {
+            return new ArrayList<String>(errors);
+        }
+    }
+
+    /**
+     * @return Metrics of the stylesheets announced with {@link #templateStarted(String, String)}
+     */
+    public Collection<TemplateMetrics> getMetrics() {
+        return new ArrayList<TemplateMetrics>(metrics.values());
+    }
+
+    /**
+     * @return The heap use reported by the engine, null if it reported none
+     */
+    public HeapMetrics getHeapMetrics() {
+        return heapMetrics;
+    }
+
+    /**
+     * @return The css files that were written with new content
+     */
+    public Set<String> getChangedStylesheets() {
+        synchronized (changedStylesheets) {
+            return new HashSet<String>(changedStylesheets);
+        }
+    }
+
+    /**
+     * @return The css files that were not compiled because the compile was cancelled
+     */
+    public Set<String> getSkippedStylesheets() {
+        synchronized (skippedStylesheets) {
+            return new HashSet<String>(skippedStylesheets);
+        }
+    }
+
+    /**
+     * @return The templates that failed to compile
+     */
+    public Set<String> getFailedTemplates() {
+        synchronized (failedTemplates) {
+            return new HashSet<String>(failedTemplates);
+        }
+    }
 }
@@ -0,0 +1,71 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Compiles SASS templates into css files. Progress and errors in templates are reported to a
+ * {@link CompilerCallback}, the same way for every engine:
+ * <ol>
+ *  <li>{@link CompilerCallback#templateStarted(String, String)} before a template is compiled</li>
+ *  <li>{@link CompilerCallback#updatingStylesheet(String, String)} once it is rendered</li>
+ *  <li>{@link CompilerCallback#updatedStylesheeet(String, String, boolean)} once the css file is written
+ *  (or found to be unchanged, see {@link StylesheetWriter}),
+ *  or {@link CompilerCallback#compilationError(String, String, String)} if it could not be compiled</li>
+ * </ol>
+ * An engine is created per execution and may keep state (e.g. a running JRuby runtime) between
+ * compiles until it is closed.
+ *
+ * @see AbstractSassMojo#createCompilerEngine()
+ */
+public interface CompilerEngine {
+    /**
+     * JRuby running Ruby Sass (and Compass), supports all Sass options
+     */
+    String JRUBY = "jruby";
+
+    /**
+     * Pure Java SCSS compiler, no Ruby runtime is started
+     */
+    String JAVA = "java";
+
+    /**
+     * JRuby running in a background JVM shared by Maven invocations, see {@link SassDaemon}
+     */
+    String DAEMON = "daemon";
+
+    /**
+     * Compile the stylesheets
+     *
+     * @param stylesheets Template to css file pairs to compile
+     * @param templateLocations All template locations of this execution, imports are resolved against them
+     * @throws MojoExecutionException If the engine itself failed, errors in templates are reported to the callback
+     */
+    void compile(List<Entry<String, String>> stylesheets, List<Entry<String, String>> templateLocations,
+            CompilerCallback compilerCallback) throws MojoExecutionException;
+
+    /**
+     * Release all resources held by the engine, it must not be used afterwards
+     */
+    void close();
+}
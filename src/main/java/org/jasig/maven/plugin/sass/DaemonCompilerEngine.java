@@ -0,0 +1,373 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ProcessBuilder.Redirect;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.jruby.embed.ScriptingContainer;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Compiles in a {@link SassDaemon} that keeps the SASS runtimes loaded between Maven invocations.
+ * The daemon is started on first use, one per plugin classpath and build of its entries. If it cannot be reached or started
+ * the stylesheets are compiled in process with the {@link JRubyCompilerEngine} instead. A daemon that
+ * rejects the request, e.g. one started by another build of the plugin, is replaced by a new one once.
+ */
+class DaemonCompilerEngine implements CompilerEngine {
+    private static final int CONNECT_TIMEOUT = 1000;
+    private static final long STARTUP_TIMEOUT = 30000;
+
+    private final AbstractSassMojo mojo;
+    private final long idleMillis;
+    private final String maxHeap;
+    private final Log log;
+    private final String classpath;
+    private final File stateFile;
+    private CompilerEngine fallback;
+
+    /**
+     * @param maxHeap -Xmx of the daemon JVM, null or empty for the JVM default
+     */
+    DaemonCompilerEngine(AbstractSassMojo mojo, long idleMillis, String maxHeap) throws MojoExecutionException {
+        this.mojo = mojo;
+        this.idleMillis = idleMillis;
+        this.maxHeap = maxHeap != null ? maxHeap.trim() : "";
+        this.log = mojo.getLog();
+        this.classpath = getDaemonClasspath();
+
+        // a rebuilt SNAPSHOT of the plugin has the same classpath but gets a daemon of its own
+        final Hasher hasher = Hashing.sha1().newHasher().putString(classpath, Charsets.UTF_8).putString(this.maxHeap, Charsets.UTF_8);
+        for (final String entry : classpath.split(File.pathSeparator)) {
+            hasher.putString(AbstractSassMojo.getModificationStamp(new File(entry)), Charsets.UTF_8);
+        }
+        final String key = hasher.hash().toString().substring(0, 12);
+        this.stateFile = new File(System.getProperty("user.home"), ".sass-maven-plugin/daemon-" + key + ".properties");
+    }
+
+    @Override
+    public void compile(List<Entry<String, String>> stylesheets, List<Entry<String, String>> templateLocations,
+            CompilerCallback compilerCallback) throws MojoExecutionException {
+        if (fallback == null) {
+            Connection connection = connect();
+            if (connection != null && compile(connection, stylesheets, templateLocations, compilerCallback)) {
+                return;
+            }
+            if (connection != null) {
+                log.info("Starting a new SASS daemon for this version of the plugin");
+                forgetDaemon(connection);
+                connection = connect();
+                if (connection != null && compile(connection, stylesheets, templateLocations, compilerCallback)) {
+                    return;
+                }
+                if (connection != null) {
+                    log.warn("SASS daemon rejected the compile request again, compiling in process");
+                }
+            }
+            fallback = new JRubyCompilerEngine(mojo);
+        }
+        fallback.compile(stylesheets, templateLocations, compilerCallback);
+    }
+
+    /**
+     * @return False if the daemon rejected the request before compiling anything, e.g. because it speaks
+     * another protocol version. Older daemons close the connection without an answer.
+     */
+    private boolean compile(Connection connection, List<Entry<String, String>> stylesheets,
+            List<Entry<String, String>> templateLocations, CompilerCallback compilerCallback) throws MojoExecutionException {
+        final List<String> loadPaths = new ArrayList<String>(templateLocations.size());
+        for (final Entry<String, String> location : templateLocations) {
+            loadPaths.add(location.getKey());
+        }
+
+        final Socket socket = connection.socket;
+        boolean answered = false;
+        try {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(DaemonProtocol.VERSION);
+            DaemonProtocol.writeString(out, connection.token);
+            DaemonProtocol.writeString(out, System.getProperty("user.dir"));
+            DaemonProtocol.writeString(out, mojo.buildBootstrapScript());
+            DaemonProtocol.writeString(out, mojo.needsCompass(stylesheets, templateLocations) ? mojo.getCompassScript()
+                    : DaemonProtocol.NO_COMPASS);
+            DaemonProtocol.writeMap(out, getDaemonOptions().getLiterals());
+            DaemonProtocol.writePairs(out, stylesheets);
+            DaemonProtocol.writeList(out, loadPaths);
+            DaemonProtocol.writeOutputProfiles(out, mojo.getOutputProfiles());
+            DaemonProtocol.writeString(out, mojo.cacheStore != null ? mojo.cacheStore.getAbsolutePath() : DaemonProtocol.NO_CACHE_STORE);
+            out.writeLong(mojo.getCacheStoreMaxBytes());
+            out.writeBoolean(mojo.failFast);
+            out.writeInt(mojo.runtimeMaxExecutions);
+            out.writeInt(mojo.runtimeMaxHeapUsage);
+            out.writeLong(mojo.getTemplateTimeoutMillis());
+            out.writeLong(mojo.getTemplateMaxAllocationBytes());
+            out.writeBoolean(log.isDebugEnabled());
+            out.flush();
+
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            byte event = in.readByte();
+            if (event == DaemonProtocol.REJECTED) {
+                log.debug(DaemonProtocol.readString(in));
+                return false;
+            }
+            answered = true;
+            while (true) {
+                switch (event) {
+                    case DaemonProtocol.TEMPLATE_STARTED:
+                        compilerCallback.templateStarted(DaemonProtocol.readString(in), DaemonProtocol.readString(in));
+                        break;
+                    case DaemonProtocol.TEMPLATE_PHASE:
+                        compilerCallback.templatePhase(DaemonProtocol.readString(in), DaemonProtocol.readString(in),
+                                Long.parseLong(DaemonProtocol.readString(in)));
+                        break;
+                    case DaemonProtocol.TEMPLATE_ALLOCATED:
+                        compilerCallback.templateAllocated(DaemonProtocol.readString(in),
+                                Long.parseLong(DaemonProtocol.readString(in)));
+                        break;
+                    case DaemonProtocol.CACHE_ACCESS:
+                        compilerCallback.cacheAccess(DaemonProtocol.readString(in), Boolean.parseBoolean(DaemonProtocol.readString(in)));
+                        break;
+                    case DaemonProtocol.UPDATING_STYLESHEET:
+                        compilerCallback.updatingStylesheet(DaemonProtocol.readString(in), DaemonProtocol.readString(in));
+                        break;
+                    case DaemonProtocol.UPDATED_STYLESHEET:
+                        compilerCallback.updatedStylesheeet(DaemonProtocol.readString(in), DaemonProtocol.readString(in),
+                                Boolean.parseBoolean(DaemonProtocol.readString(in)));
+                        break;
+                    case DaemonProtocol.TEMPLATE_SKIPPED:
+                        compilerCallback.templateSkipped(DaemonProtocol.readString(in), DaemonProtocol.readString(in));
+                        break;
+                    case DaemonProtocol.HEAP_METRICS:
+                        compilerCallback.heapMeasured(new HeapMetrics(in.readLong(), in.readLong(), in.readLong(),
+                                in.readLong(), in.readLong(), in.readLong()));
+                        break;
+                    case DaemonProtocol.COMPILATION_ERROR:
+                        compilerCallback.compilationError(DaemonProtocol.readString(in), DaemonProtocol.readString(in),
+                                DaemonProtocol.readString(in));
+                        break;
+                    case DaemonProtocol.DONE:
+                        return true;
+                    case DaemonProtocol.FAILED:
+                        throw new MojoExecutionException("SASS daemon failed to compile: " + DaemonProtocol.readString(in));
+                    default:
+                        throw new MojoExecutionException("Unexpected event " + event + " from SASS daemon");
+                }
+                event = in.readByte();
+            }
+        }
+        catch (final IOException e) {
+            if (!answered) {
+                // nothing was compiled, the daemon dropped the request
+                log.debug("SASS daemon closed the connection without an answer", e);
+                return false;
+            }
+            throw new MojoExecutionException("Lost connection to SASS daemon", e);
+        }
+        finally {
+            IOUtils.closeQuietly(socket);
+        }
+    }
+
+    /**
+     * @return The sassOptions with relative load_paths and cache_location made absolute, the daemon does not
+     * run in the working directory of this build. Options that are Ruby expressions are resolved against the
+     * working directory sent with the request.
+     */
+    private SassOptions getDaemonOptions() {
+        final SassOptions options = SassOptions.parse(mojo.getSassOptions().getLiterals());
+
+        final List<String> loadPaths = options.getStrings("load_paths");
+        if (loadPaths != null && !loadPaths.isEmpty()) {
+            final List<String> literals = new ArrayList<String>(loadPaths.size());
+            for (final String loadPath : loadPaths) {
+                literals.add(SassOptions.quote(new File(loadPath).getAbsolutePath()));
+            }
+            options.putLiteral("load_paths", "[" + Joiner.on(", ").join(literals) + "]");
+        }
+
+        final Object cacheLocation = options.getValues().get("cache_location");
+        if (cacheLocation instanceof String) {
+            options.put("cache_location", new File((String) cacheLocation).getAbsolutePath());
+        }
+        return options;
+    }
+
+    /**
+     * Drop the state of the daemon behind the connection unless another build replaced it already, so
+     * {@link #connect()} starts a new daemon. The rejecting daemon exits by itself, see {@link DaemonProtocol}.
+     */
+    private void forgetDaemon(Connection connection) {
+        final Properties state = SassDaemon.readState(stateFile);
+        if (state != null && connection.token.equals(state.getProperty(SassDaemon.TOKEN))) {
+            stateFile.delete();
+        }
+    }
+
+    /**
+     * Connect to the daemon, starting it if it is not running
+     *
+     * @return The connection, null if the daemon is not available
+     */
+    private Connection connect() {
+        Connection connection = tryConnect();
+        if (connection != null) {
+            return connection;
+        }
+
+        try {
+            stateFile.getParentFile().mkdirs();
+            final File lockFile = new File(stateFile.getPath() + ".lock");
+            try (final FileChannel lockChannel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE);
+                    final FileLock lock = lockChannel.lock()) {
+                // another build may have started the daemon while waiting for the lock
+                connection = tryConnect();
+                if (connection != null) {
+                    return connection;
+                }
+
+                startDaemon();
+                final long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT;
+                while (System.currentTimeMillis() < deadline) {
+                    Thread.sleep(100);
+                    connection = tryConnect();
+                    if (connection != null) {
+                        return connection;
+                    }
+                }
+                log.warn("SASS daemon did not start within " + STARTUP_TIMEOUT + "ms, see " + getLogFile()
+                        + ". Compiling in process.");
+            }
+        }
+        catch (final IOException e) {
+            log.warn("Failed to start SASS daemon, compiling in process: " + e.getMessage());
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    private Connection tryConnect() {
+        final Properties state = SassDaemon.readState(stateFile);
+        if (state == null) {
+            return null;
+        }
+
+        final Socket socket = new Socket();
+        try {
+            final int port = Integer.parseInt(state.getProperty(SassDaemon.PORT));
+            socket.connect(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port), CONNECT_TIMEOUT);
+            log.debug("Connected to SASS daemon " + state.getProperty(SassDaemon.PID) + " on port " + port);
+            return new Connection(socket, state.getProperty(SassDaemon.TOKEN));
+        }
+        catch (final IOException | NumberFormatException e) {
+            // stale state of a daemon that is gone
+            IOUtils.closeQuietly(socket);
+            return null;
+        }
+    }
+
+    private void startDaemon() throws IOException {
+        final String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+        final List<String> command = new ArrayList<String>();
+        command.add(java);
+        if (!maxHeap.isEmpty()) {
+            command.add("-Xmx" + maxHeap);
+        }
+        command.addAll(ImmutableList.of("-cp", classpath, SassDaemon.class.getName(), stateFile.getPath(),
+                Long.toString(idleMillis)));
+
+        log.info("Starting SASS daemon, log in " + getLogFile());
+        new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(Redirect.appendTo(getLogFile()))
+                .start();
+    }
+
+    private File getLogFile() {
+        return new File(stateFile.getPath().replaceFirst("\\.properties$", ".log"));
+    }
+
+    /**
+     * The daemon needs the plugin and the libraries it runs: JRuby, Guava, commons-io and the Maven logging API
+     */
+    private static String getDaemonClasspath() throws MojoExecutionException {
+        final Set<String> entries = new LinkedHashSet<String>();
+        for (final Class<?> type : ImmutableList.<Class<?>>of(SassDaemon.class, ScriptingContainer.class,
+                ImmutableList.class, IOUtils.class, Log.class)) {
+            final CodeSource codeSource = type.getProtectionDomain().getCodeSource();
+            if (codeSource == null) {
+                throw new MojoExecutionException("Failed to locate " + type.getName() + " for the SASS daemon classpath");
+            }
+            try {
+                entries.add(new File(codeSource.getLocation().toURI()).getPath());
+            }
+            catch (final URISyntaxException e) {
+                throw new MojoExecutionException("Failed to locate " + type.getName() + " for the SASS daemon classpath", e);
+            }
+        }
+        return Joiner.on(File.pathSeparator).join(entries);
+    }
+
+    @Override
+    public void close() {
+        if (fallback != null) {
+            fallback.close();
+            fallback = null;
+        }
+    }
+
+    private static class Connection {
+        private final Socket socket;
+        private final String token;
+
+        Connection(Socket socket, String token) {
+            this.socket = socket;
+            this.token = token;
+        }
+    }
+}
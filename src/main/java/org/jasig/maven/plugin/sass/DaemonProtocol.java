@@ -0,0 +1,168 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+
+/**
+ * Wire format between {@link DaemonCompilerEngine} and {@link SassDaemon}. A connection carries
+ * a single compile request:
+ * <pre>
+ * client: VERSION token workingDirectory bootstrapScript compassScript options stylesheets loadPaths outputProfiles cacheStore cacheStoreMaxBytes failFast runtimeMaxExecutions runtimeMaxHeapUsage
+ *         templateTimeoutMillis templateMaxAllocationBytes debug
+ * daemon: REJECTED message | event* (DONE | FAILED message)
+ * </pre>
+ * The workingDirectory is the one of the client, the daemon resolves relative paths against it. The
+ * events replay the {@link CompilerCallback} calls made in the daemon, in order, as they happen.
+ * A request with another VERSION or a wrong token is rejected before anything else is read, a daemon
+ * that rejected another VERSION exits once idle so the client can start one of its own version.
+ */
+final class DaemonProtocol {
+    static final int VERSION = 10;
+
+    static final byte TEMPLATE_STARTED = 1;
+    static final byte TEMPLATE_PHASE = 2;
+    static final byte CACHE_ACCESS = 3;
+    static final byte UPDATING_STYLESHEET = 4;
+    static final byte UPDATED_STYLESHEET = 5;
+    static final byte COMPILATION_ERROR = 6;
+    static final byte DONE = 7;
+    static final byte FAILED = 8;
+    static final byte TEMPLATE_SKIPPED = 9;
+    static final byte HEAP_METRICS = 10;
+    static final byte TEMPLATE_ALLOCATED = 11;
+    static final byte REJECTED = 12;
+
+    /**
+     * Value of compassScript if the stylesheets do not need Compass loaded, see AbstractSassMojo#lazyCompass
+     */
+    static final String NO_COMPASS = "";
+
+    /**
+     * Value of cacheStore if no shared cache store is used
+     */
+    static final String NO_CACHE_STORE = "";
+
+    private DaemonProtocol() {
+    }
+
+    /**
+     * Strings may be longer than {@link DataOutputStream#writeUTF(String)} allows, e.g. error messages
+     */
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        final byte[] bytes = value.getBytes(Charsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+    static void writeMap(DataOutputStream out, Map<String, String> map) throws IOException {
+        out.writeInt(map.size());
+        for (final Entry<String, String> entry : map.entrySet()) {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+    }
+
+    static Map<String, String> readMap(DataInputStream in) throws IOException {
+        final int size = in.readInt();
+        final Map<String, String> map = new LinkedHashMap<String, String>();
+        for (int i = 0; i < size; i++) {
+            map.put(readString(in), readString(in));
+        }
+        return map;
+    }
+
+    static void writePairs(DataOutputStream out, List<Entry<String, String>> pairs) throws IOException {
+        out.writeInt(pairs.size());
+        for (final Entry<String, String> pair : pairs) {
+            writeString(out, pair.getKey());
+            writeString(out, pair.getValue());
+        }
+    }
+
+    static List<Entry<String, String>> readPairs(DataInputStream in) throws IOException {
+        final int size = in.readInt();
+        final List<Entry<String, String>> pairs = new ArrayList<Entry<String, String>>(size);
+        for (int i = 0; i < size; i++) {
+            pairs.add(Maps.immutableEntry(readString(in), readString(in)));
+        }
+        return pairs;
+    }
+
+    static void writeList(DataOutputStream out, List<String> list) throws IOException {
+        out.writeInt(list.size());
+        for (final String value : list) {
+            writeString(out, value);
+        }
+    }
+
+    static List<String> readList(DataInputStream in) throws IOException {
+        final int size = in.readInt();
+        final List<String> list = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(readString(in));
+        }
+        return list;
+    }
+
+    static void writeOutputProfiles(DataOutputStream out, Map<String, List<OutputProfile>> outputProfiles) throws IOException {
+        out.writeInt(outputProfiles.size());
+        for (final Entry<String, List<OutputProfile>> location : outputProfiles.entrySet()) {
+            writeString(out, location.getKey());
+            out.writeInt(location.getValue().size());
+            for (final OutputProfile outputProfile : location.getValue()) {
+                writeString(out, outputProfile.getStyle());
+                writeString(out, outputProfile.getSuffix());
+                out.writeBoolean(outputProfile.isDebugInfo());
+                out.writeBoolean(outputProfile.isLineComments());
+            }
+        }
+    }
+
+    static Map<String, List<OutputProfile>> readOutputProfiles(DataInputStream in) throws IOException {
+        final int size = in.readInt();
+        final Map<String, List<OutputProfile>> outputProfiles = new LinkedHashMap<String, List<OutputProfile>>();
+        for (int i = 0; i < size; i++) {
+            final String location = readString(in);
+            final int count = in.readInt();
+            final List<OutputProfile> profiles = new ArrayList<OutputProfile>(count);
+            for (int j = 0; j < count; j++) {
+                profiles.add(new OutputProfile(readString(in), readString(in), in.readBoolean(), in.readBoolean()));
+            }
+            outputProfiles.put(location, profiles);
+        }
+        return outputProfiles;
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of the imports between SASS templates in both directions. The forward direction answers which
+ * files a template needs, the reverse direction which templates have to be recompiled when a file
+ * changes. Both are updated together whenever the imports of a single file are known again.
+ */
+class DependencyIndex {
+    private final Map<String, List<String>> imports = new HashMap<String, List<String>>();
+    private final Map<String, Set<String>> importers = new HashMap<String, Set<String>>();
+
+    /**
+     * Replace the imports recorded for the file
+     */
+    void setImports(String file, List<String> imported) {
+        remove(file);
+        imports.put(file, imported);
+        for (final String dependency : imported) {
+            Set<String> dependents = importers.get(dependency);
+            if (dependents == null) {
+                dependents = new HashSet<String>();
+                importers.put(dependency, dependents);
+            }
+            dependents.add(file);
+        }
+    }
+
+    /**
+     * Forget the imports of the file, templates importing it are kept
+     */
+    void remove(String file) {
+        final List<String> previous = imports.remove(file);
+        if (previous == null) {
+            return;
+        }
+        for (final String dependency : previous) {
+            final Set<String> dependents = importers.get(dependency);
+            if (dependents != null) {
+                dependents.remove(file);
+                if (dependents.isEmpty()) {
+                    importers.remove(dependency);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The files directly imported by the file
+     */
+    List<String> getImports(String file) {
+        final List<String> imported = imports.get(file);
+        return imported != null ? imported : Collections.<String>emptyList();
+    }
+
+    /**
+     * @return The given files and every file that imports one of them, directly or transitively
+     */
+    Set<String> getDependents(Collection<String> files) {
+        return closure(files, true);
+    }
+
+    /**
+     * @return The given files and every file they import, directly or transitively
+     */
+    Set<String> getDependencies(Collection<String> files) {
+        return closure(files, false);
+    }
+
+    private Set<String> closure(Collection<String> files, boolean reverse) {
+        final Set<String> result = new HashSet<String>(files);
+        final LinkedList<String> queue = new LinkedList<String>(files);
+        while (!queue.isEmpty()) {
+            final String file = queue.removeFirst();
+            final Collection<String> next = reverse ? importers.get(file) : imports.get(file);
+            if (next == null) {
+                continue;
+            }
+            for (final String other : new ArrayList<String>(next)) {
+                if (result.add(other)) {
+                    queue.add(other);
+                }
+            }
+        }
+        return result;
+    }
+}
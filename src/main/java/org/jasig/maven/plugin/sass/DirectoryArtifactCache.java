@@ -0,0 +1,82 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+
+/**
+ * Artifact cache in a directory, e.g. on a network file system mounted by all build agents.
+ * Entries are written to a temporary file and moved into place, so concurrent builds never see
+ * partial entries.
+ */
+class DirectoryArtifactCache implements ArtifactCache {
+    private final Path directory;
+
+    DirectoryArtifactCache(File directory) {
+        this.directory = directory.toPath();
+    }
+
+    @Override
+    public byte[] get(String key) throws IOException {
+        try {
+            return Files.readAllBytes(getEntry(key));
+        }
+        catch (final NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void put(String key, byte[] content) throws IOException {
+        final Path entry = getEntry(key);
+        final Path tempFile = entry.resolveSibling(entry.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        Files.createDirectories(entry.getParent());
+        try {
+            Files.write(tempFile, content);
+            try {
+                Files.move(tempFile, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (final AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, entry, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Keys are spread over sub directories by their first two characters
+     */
+    private Path getEntry(String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key.substring(2) + ".css");
+    }
+
+    @Override
+    public String toString() {
+        return directory.toString();
+    }
+}
@@ -0,0 +1,167 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+
+import org.apache.commons.io.IOUtils;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+/**
+ * Persistent cache of {@link TemplateDirectoryScanner} results, keyed by base directory and patterns.
+ * A cached result is used as long as the modification times of all directories listed by the scan are
+ * unchanged, which only requires a stat of each directory instead of listing them.
+ */
+class DirectoryScanCache {
+    private static final String INCLUDED_SUFFIX = ".included";
+    private static final String TIMESTAMPS_SUFFIX = ".timestamps";
+    private static final String SEPARATOR = "\t";
+
+    private final File cacheFile;
+    private final Map<String, TemplateDirectoryScanner.Result> results = new HashMap<String, TemplateDirectoryScanner.Result>();
+    private boolean dirty;
+
+    private DirectoryScanCache(File cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    /**
+     * Load the cache, a missing or unreadable cache file results in an empty cache
+     */
+    static DirectoryScanCache load(File cacheFile) {
+        final DirectoryScanCache cache = new DirectoryScanCache(cacheFile);
+        if (!cacheFile.isFile()) {
+            return cache;
+        }
+
+        final Properties properties = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(cacheFile);
+            properties.load(in);
+        }
+        catch (final IOException e) {
+            return cache;
+        }
+        finally {
+            IOUtils.closeQuietly(in);
+        }
+
+        for (final String key : properties.stringPropertyNames()) {
+            if (!key.endsWith(INCLUDED_SUFFIX)) {
+                continue;
+            }
+            final String scanKey = key.substring(0, key.length() - INCLUDED_SUFFIX.length());
+            final String included = properties.getProperty(key);
+            final String[] timestamps = properties.getProperty(scanKey + TIMESTAMPS_SUFFIX, "").split(SEPARATOR, -1);
+
+            final Map<String, Long> directoryTimestamps = new LinkedHashMap<String, Long>();
+            for (int i = 0; i + 1 < timestamps.length; i += 2) {
+                directoryTimestamps.put(timestamps[i], Long.parseLong(timestamps[i + 1]));
+            }
+            final List<String> includedDirectories = included.isEmpty()
+                    ? new ArrayList<String>()
+                    : new ArrayList<String>(Arrays.asList(included.split(SEPARATOR)));
+            cache.results.put(scanKey, new TemplateDirectoryScanner.Result(includedDirectories, directoryTimestamps));
+        }
+        return cache;
+    }
+
+    /**
+     * Get the cached result for the scan if it is still current, otherwise scan and cache the new result
+     */
+    TemplateDirectoryScanner.Result scan(File baseDirectory, List<String> includes, List<String> excludes) throws IOException {
+        final String key = getKey(baseDirectory, includes, excludes);
+        synchronized (this) {
+            final TemplateDirectoryScanner.Result cached = results.get(key);
+            if (cached != null && cached.isCurrent(baseDirectory)) {
+                return cached;
+            }
+        }
+
+        final TemplateDirectoryScanner.Result result = new TemplateDirectoryScanner(includes, excludes).scan(baseDirectory);
+        synchronized (this) {
+            results.put(key, result);
+            dirty = true;
+        }
+        return result;
+    }
+
+    /**
+     * Write the cache if a scan result changed
+     */
+    synchronized void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+
+        final Properties properties = new Properties();
+        for (final Entry<String, TemplateDirectoryScanner.Result> result : results.entrySet()) {
+            final List<Object> timestamps = new ArrayList<Object>();
+            for (final Entry<String, Long> directory : result.getValue().getDirectoryTimestamps().entrySet()) {
+                timestamps.add(directory.getKey());
+                timestamps.add(directory.getValue());
+            }
+            properties.setProperty(result.getKey() + INCLUDED_SUFFIX,
+                    Joiner.on(SEPARATOR).join(result.getValue().getIncludedDirectories()));
+            properties.setProperty(result.getKey() + TIMESTAMPS_SUFFIX, Joiner.on(SEPARATOR).join(timestamps));
+        }
+
+        Files.createParentDirs(cacheFile);
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(cacheFile);
+            properties.store(out, "sass-maven-plugin directory scan cache");
+        }
+        finally {
+            IOUtils.closeQuietly(out);
+        }
+        dirty = false;
+    }
+
+    private static String getKey(File baseDirectory, List<String> includes, List<String> excludes) {
+        final Hasher hasher = Hashing.sha1().newHasher();
+        hasher.putString(baseDirectory.getAbsolutePath() + "\n", Charsets.UTF_8);
+        for (final String include : includes) {
+            hasher.putString("+" + include + "\n", Charsets.UTF_8);
+        }
+        for (final String exclude : excludes) {
+            hasher.putString("-" + exclude + "\n", Charsets.UTF_8);
+        }
+        return hasher.hash().toString();
+    }
+}
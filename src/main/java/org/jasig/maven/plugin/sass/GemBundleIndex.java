@@ -0,0 +1,164 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+
+import org.apache.commons.io.IOUtils;
+
+import com.google.common.base.Joiner;
+import com.google.common.io.Files;
+
+/**
+ * Snapshot of what the gem loading part of the bootstrap script resolved: the gem directories
+ * RubyGems added to the load path and the Compass frameworks that got registered. With the
+ * snapshot the bootstrap script puts the directories on the load path and registers the
+ * frameworks directly, so RubyGems does not have to discover and load gemspecs and Compass does
+ * not have to probe the (slow to read) jar: framework directories.
+ * <br/>
+ * The snapshot is only used for the key it was taken with, see {@link AbstractSassMojo#buildBootstrapScript()},
+ * and as long as all its directories still exist.
+ */
+class GemBundleIndex {
+    private static final String KEY = "key";
+    private static final String LOAD_PATHS = "loadPaths";
+    private static final String FRAMEWORKS = "frameworks";
+    private static final String SEPARATOR = "\t";
+
+    private final List<String> loadPaths;
+    private final Map<String, String> frameworks;
+
+    GemBundleIndex(List<String> loadPaths, Map<String, String> frameworks) {
+        this.loadPaths = Collections.unmodifiableList(new ArrayList<String>(loadPaths));
+        this.frameworks = Collections.unmodifiableMap(new LinkedHashMap<String, String>(frameworks));
+    }
+
+    /**
+     * @return The index, null if there is none for the key or it is out of date
+     */
+    static GemBundleIndex load(File indexFile, String key) {
+        if (!indexFile.isFile()) {
+            return null;
+        }
+
+        final Properties properties = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(indexFile);
+            properties.load(in);
+        }
+        catch (final IOException e) {
+            return null;
+        }
+        finally {
+            IOUtils.closeQuietly(in);
+        }
+
+        if (!key.equals(properties.getProperty(KEY))) {
+            return null;
+        }
+
+        final List<String> loadPaths = split(properties.getProperty(LOAD_PATHS, ""));
+        final Map<String, String> frameworks = new LinkedHashMap<String, String>();
+        final List<String> frameworkValues = split(properties.getProperty(FRAMEWORKS, ""));
+        for (int i = 0; i + 1 < frameworkValues.size(); i += 2) {
+            frameworks.put(frameworkValues.get(i), frameworkValues.get(i + 1));
+        }
+
+        for (final String path : loadPaths) {
+            if (!exists(path)) {
+                return null;
+            }
+        }
+        for (final String path : frameworks.values()) {
+            if (!exists(path)) {
+                return null;
+            }
+        }
+        return new GemBundleIndex(loadPaths, frameworks);
+    }
+
+    /**
+     * Write the index for the key
+     */
+    void save(File indexFile, String key) throws IOException {
+        final List<String> frameworkValues = new ArrayList<String>();
+        for (final Entry<String, String> framework : frameworks.entrySet()) {
+            frameworkValues.add(framework.getKey());
+            frameworkValues.add(framework.getValue());
+        }
+
+        final Properties properties = new Properties();
+        properties.setProperty(KEY, key);
+        properties.setProperty(LOAD_PATHS, Joiner.on(SEPARATOR).join(loadPaths));
+        properties.setProperty(FRAMEWORKS, Joiner.on(SEPARATOR).join(frameworkValues));
+
+        Files.createParentDirs(indexFile);
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(indexFile);
+            properties.store(out, "sass-maven-plugin gem bundle index");
+        }
+        finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    /**
+     * @return Gem directories to put in front of the load path, in load path order
+     */
+    List<String> getLoadPaths() {
+        return loadPaths;
+    }
+
+    /**
+     * @return Name to path of the registered Compass frameworks, in registration order
+     */
+    Map<String, String> getFrameworks() {
+        return frameworks;
+    }
+
+    private static List<String> split(String value) {
+        return value.isEmpty() ? new ArrayList<String>() : Arrays.asList(value.split(SEPARATOR));
+    }
+
+    /**
+     * Directories inside of jars (jar:, file:...jar!, classpath:) are only gone when the plugin jar
+     * changes, which changes the key
+     */
+    private static boolean exists(String path) {
+        if (path.startsWith("jar:") || path.startsWith("file:") || path.startsWith("classpath:") || path.contains("!")) {
+            return true;
+        }
+        return new File(path).isDirectory();
+    }
+}
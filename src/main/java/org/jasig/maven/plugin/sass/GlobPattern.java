@@ -0,0 +1,188 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import com.google.common.base.Joiner;
+
+/**
+ * Ant style include/exclude pattern as used by {@link org.apache.maven.model.FileSet}, compiled once
+ * into one regular expression per path segment. "**" matches any number of directories, "*" and "?"
+ * match within a single path segment. A pattern ending with "/" is treated as ending with "/**".
+ * <br/>
+ * Like plexus SelectorUtils "%ant[...]" wraps an Ant style pattern and "%regex[...]" a regular
+ * expression that has to match the whole path, joined with the platform file separator. A regular
+ * expression can not tell what may match below a directory, so the whole tree is walked.
+ * <br/>
+ * Besides matching a path the pattern can tell whether anything below a directory could match, which
+ * lets a directory walk skip subtrees early.
+ */
+class GlobPattern {
+    private static final String ANY_DIRECTORIES = "**";
+    private static final String ANT_PREFIX = "%ant[";
+    private static final String REGEX_PREFIX = "%regex[";
+    private static final String SUFFIX = "]";
+
+    private final String pattern;
+    private final Pattern[] segments;
+    private final Pattern regex;
+
+    /**
+     * @throws IllegalArgumentException If a %regex[...] pattern is no valid regular expression
+     */
+    GlobPattern(String pattern) {
+        final String trimmed = pattern.trim();
+        if (trimmed.startsWith(REGEX_PREFIX) && trimmed.endsWith(SUFFIX)) {
+            this.pattern = trimmed;
+            this.segments = null;
+            try {
+                this.regex = Pattern.compile(trimmed.substring(REGEX_PREFIX.length(), trimmed.length() - SUFFIX.length()));
+            }
+            catch (final PatternSyntaxException e) {
+                throw new IllegalArgumentException("Invalid regular expression in pattern " + trimmed + ": "
+                        + e.getDescription(), e);
+            }
+            return;
+        }
+        this.regex = null;
+
+        String normalized = trimmed;
+        if (normalized.startsWith(ANT_PREFIX) && normalized.endsWith(SUFFIX)) {
+            normalized = normalized.substring(ANT_PREFIX.length(), normalized.length() - SUFFIX.length()).trim();
+        }
+        normalized = normalized.replace('\\', '/');
+        if (normalized.endsWith("/")) {
+            normalized += ANY_DIRECTORIES;
+        }
+        this.pattern = normalized;
+
+        final String[] tokens = split(normalized);
+        this.segments = new Pattern[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            segments[i] = ANY_DIRECTORIES.equals(tokens[i]) ? null : compile(tokens[i]);
+        }
+    }
+
+    /**
+     * Compile all patterns
+     */
+    static List<GlobPattern> compileAll(Iterable<String> patterns) {
+        final List<GlobPattern> compiled = new ArrayList<GlobPattern>();
+        for (final String pattern : patterns) {
+            compiled.add(new GlobPattern(pattern));
+        }
+        return compiled;
+    }
+
+    /**
+     * Split a relative path into its segments
+     */
+    static String[] split(String path) {
+        final String normalized = path.replace('\\', '/');
+        final List<String> segments = new ArrayList<String>();
+        for (final String segment : normalized.split("/")) {
+            if (!segment.isEmpty()) {
+                segments.add(segment);
+            }
+        }
+        return segments.toArray(new String[segments.size()]);
+    }
+
+    /**
+     * @return true if the path matches the pattern
+     */
+    boolean matches(String[] path) {
+        if (regex != null) {
+            return regex.matcher(Joiner.on(File.separator).join(path)).matches();
+        }
+        return matches(0, path, 0, segments.length);
+    }
+
+    /**
+     * @return true if a path below the directory could match the pattern
+     */
+    boolean couldMatchBelow(String[] directory) {
+        if (regex != null) {
+            return true;
+        }
+        int p = 0;
+        for (int s = 0; s < directory.length; s++) {
+            if (p == segments.length) {
+                return false;
+            }
+            if (segments[p] == null) {
+                return true;
+            }
+            if (!segments[p].matcher(directory[s]).matches()) {
+                return false;
+            }
+            p++;
+        }
+        return p < segments.length;
+    }
+
+    /**
+     * @return true if every path below the directory matches the pattern, e.g. "node_modules/**" for "node_modules"
+     */
+    boolean matchesAllBelow(String[] directory) {
+        return regex == null && segments.length > 0 && segments[segments.length - 1] == null
+                && matches(0, directory, 0, segments.length - 1);
+    }
+
+    private boolean matches(int p, String[] path, int s, int end) {
+        if (p == end) {
+            return s == path.length;
+        }
+        if (segments[p] == null) {
+            return matches(p + 1, path, s, end) || (s < path.length && matches(p, path, s + 1, end));
+        }
+        return s < path.length && segments[p].matcher(path[s]).matches() && matches(p + 1, path, s + 1, end);
+    }
+
+    private static Pattern compile(String segment) {
+        final StringBuilder regex = new StringBuilder();
+        final StringBuilder literal = new StringBuilder();
+        for (final char c : segment.toCharArray()) {
+            if (c == '*' || c == '?') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '*' ? ".*" : ".");
+            }
+            else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+}
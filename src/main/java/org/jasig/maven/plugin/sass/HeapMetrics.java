@@ -0,0 +1,152 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+
+/**
+ * Heap use and garbage collection of the JVM a compile ran in, measured with a {@link Probe}
+ * started before and stopped after the compile. For the daemon engine these are the numbers of
+ * the daemon JVM.
+ */
+public class HeapMetrics {
+    private final long usedBeforeBytes;
+    private final long usedAfterBytes;
+    private final long peakBytes;
+    private final long maxBytes;
+    private final long gcCount;
+    private final long gcMillis;
+
+    HeapMetrics(long usedBeforeBytes, long usedAfterBytes, long peakBytes, long maxBytes, long gcCount, long gcMillis) {
+        this.usedBeforeBytes = usedBeforeBytes;
+        this.usedAfterBytes = usedAfterBytes;
+        this.peakBytes = peakBytes;
+        this.maxBytes = maxBytes;
+        this.gcCount = gcCount;
+        this.gcMillis = gcMillis;
+    }
+
+    /**
+     * Start measuring, the peak usage of the heap pools is reset
+     */
+    static Probe start() {
+        return new Probe();
+    }
+
+    /**
+     * @return Percentage of the maximum heap size currently in use, 0 if the maximum is not known
+     */
+    static int getHeapUsage() {
+        final MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        return heap.getMax() > 0 ? (int) (heap.getUsed() * 100 / heap.getMax()) : 0;
+    }
+
+    public long getUsedBeforeBytes() {
+        return usedBeforeBytes;
+    }
+
+    public long getUsedAfterBytes() {
+        return usedAfterBytes;
+    }
+
+    /**
+     * @return Sum of the peak usage of the heap pools during the compile
+     */
+    public long getPeakBytes() {
+        return peakBytes;
+    }
+
+    /**
+     * @return The maximum heap size, -1 if it is not known
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getGcCount() {
+        return gcCount;
+    }
+
+    public long getGcMillis() {
+        return gcMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "heap " + toMegabytes(usedBeforeBytes) + " -> " + toMegabytes(usedAfterBytes) + " (peak "
+                + toMegabytes(peakBytes) + (maxBytes > 0 ? " of " + toMegabytes(maxBytes) : "") + "), " + gcCount
+                + " GC(s) in " + gcMillis + "ms";
+    }
+
+    private static String toMegabytes(long bytes) {
+        return (bytes / (1024 * 1024)) + "MB";
+    }
+
+    /**
+     * A started measurement
+     */
+    static final class Probe {
+        private final long usedBeforeBytes;
+        private final long gcCountBefore;
+        private final long gcMillisBefore;
+
+        private Probe() {
+            for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                    pool.resetPeakUsage();
+                }
+            }
+            this.usedBeforeBytes = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            this.gcCountBefore = getGcCount();
+            this.gcMillisBefore = getGcMillis();
+        }
+
+        HeapMetrics stop() {
+            long peakBytes = 0;
+            for (final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                    peakBytes += pool.getPeakUsage().getUsed();
+                }
+            }
+            final MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+            return new HeapMetrics(usedBeforeBytes, heap.getUsed(), peakBytes, heap.getMax(),
+                    getGcCount() - gcCountBefore, getGcMillis() - gcMillisBefore);
+        }
+
+        private static long getGcCount() {
+            long count = 0;
+            for (final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                count += Math.max(0, gc.getCollectionCount());
+            }
+            return count;
+        }
+
+        private static long getGcMillis() {
+            long millis = 0;
+            for (final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                millis += Math.max(0, gc.getCollectionTime());
+            }
+            return millis;
+        }
+    }
+}
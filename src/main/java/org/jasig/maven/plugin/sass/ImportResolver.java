@@ -0,0 +1,152 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FilenameUtils;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Finds the files a SASS template imports, following the lookup rules of Sass: relative to the importing
+ * file first, then in each load path, trying the plain and the partial (underscore prefixed) name with
+ * the .scss and .sass extensions.
+ * <br/>
+ * Imports that are compiled to a plain CSS import (.css files, urls, media queries) are ignored, imports
+ * that cannot be found on disk (e.g. stylesheets provided by gems such as Compass) are reported by
+ * {@link #getImportNames(String)} but not by {@link #resolveImports(File)}.
+ */
+class ImportResolver {
+    private static final Pattern COMMENT = Pattern.compile("/\\*.*?\\*/|//[^\\n]*", Pattern.DOTALL);
+    private static final Pattern IMPORT = Pattern.compile("@import\\s+([^;{}\\n]+)");
+
+    private final List<File> loadPaths;
+
+    ImportResolver(List<File> loadPaths) {
+        this.loadPaths = loadPaths;
+    }
+
+    /**
+     * @return The resolved files imported by the template, as normalized paths with unix separators.
+     */
+    List<String> resolveImports(File template) throws IOException {
+        return resolveImports(template.getParentFile(), getImportNames(Files.toString(template, Charsets.UTF_8)));
+    }
+
+    /**
+     * @param directory Directory of the importing template
+     * @param names Import names as returned by {@link #getImportNames(String)}
+     * @return The resolved files, as normalized paths with unix separators.
+     */
+    List<String> resolveImports(File directory, List<String> names) {
+        final List<String> imports = new ArrayList<String>();
+        for (final String name : names) {
+            final File imported = resolve(directory, name);
+            if (imported != null) {
+                imports.add(toPath(imported));
+            }
+        }
+        return imports;
+    }
+
+    /**
+     * @return The names of all Sass imports in the content, excluding plain CSS imports.
+     */
+    static List<String> getImportNames(String content) {
+        final List<String> names = new ArrayList<String>();
+
+        final Matcher matcher = IMPORT.matcher(COMMENT.matcher(content).replaceAll(""));
+        while (matcher.find()) {
+            for (String name : matcher.group(1).split(",")) {
+                name = name.trim();
+                if (name.startsWith("url(") || name.startsWith("\"http") || name.startsWith("'http")) {
+                    continue;
+                }
+                if (name.startsWith("\"") || name.startsWith("'")) {
+                    final int end = name.indexOf(name.charAt(0), 1);
+                    if (end < 0 || end < name.length() - 1) {
+                        // unterminated or followed by a media query, this is a plain CSS import
+                        continue;
+                    }
+                    name = name.substring(1, end);
+                }
+                if (name.isEmpty() || name.endsWith(".css")) {
+                    continue;
+                }
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @return The file an import refers to or null if it can not be found
+     */
+    File resolve(File directory, String name) {
+        File imported = resolveIn(directory, name);
+        for (int i = 0; imported == null && i < loadPaths.size(); i++) {
+            imported = resolveIn(loadPaths.get(i), name);
+        }
+        return imported;
+    }
+
+    private File resolveIn(File directory, String name) {
+        final String path = FilenameUtils.getPath(name);
+        final String baseName = FilenameUtils.getName(name);
+
+        final String[] candidates;
+        if (name.endsWith(".scss") || name.endsWith(".sass")) {
+            candidates = new String[] { baseName, "_" + baseName };
+        }
+        else {
+            candidates = new String[] { baseName + ".scss", "_" + baseName + ".scss", baseName + ".sass", "_" + baseName + ".sass" };
+        }
+
+        for (final String candidate : candidates) {
+            final File file = new File(new File(directory, path), candidate);
+            if (file.isFile()) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the file name has one of the extensions of SASS templates
+     */
+    static boolean isTemplate(String name) {
+        return name.endsWith(".scss") || name.endsWith(".sass");
+    }
+
+    /**
+     * @return The normalized absolute path of the file with unix separators
+     */
+    static String toPath(File file) {
+        final String path = file.getAbsolutePath();
+        final String normalized = FilenameUtils.normalize(path);
+        return FilenameUtils.separatorsToUnix(normalized != null ? normalized : path);
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Compiles with Ruby Sass in JRuby, configured by {@link AbstractSassMojo}. A single
+ * runtime is held between compiles and replaced if a script fails, with several compiler threads
+ * the stylesheets are compiled on runtimes from the pool instead.
+ */
+class JRubyCompilerEngine implements CompilerEngine {
+    private final AbstractSassMojo mojo;
+    private final String bootstrapScript;
+    private SassRuntime runtime;
+
+    JRubyCompilerEngine(AbstractSassMojo mojo) {
+        this.mojo = mojo;
+        this.bootstrapScript = mojo.buildBootstrapScript();
+    }
+
+    @Override
+    public void compile(List<Entry<String, String>> stylesheets, List<Entry<String, String>> templateLocations,
+            CompilerCallback compilerCallback) throws MojoExecutionException {
+        final HeapMetrics.Probe heapProbe = HeapMetrics.start();
+        try {
+            compileStylesheets(stylesheets, templateLocations, compilerCallback);
+        }
+        finally {
+            compilerCallback.heapMeasured(heapProbe.stop());
+        }
+    }
+
+    private void compileStylesheets(List<Entry<String, String>> stylesheets, List<Entry<String, String>> templateLocations,
+            CompilerCallback compilerCallback) throws MojoExecutionException {
+        final List<List<Entry<String, String>>> stylesheetGroups = mojo.partitionStylesheets(stylesheets);
+        if (stylesheetGroups.size() > 1) {
+            mojo.compileOnRuntimes(stylesheetGroups, templateLocations, compilerCallback);
+            return;
+        }
+
+        if (runtime == null) {
+            runtime = mojo.acquireRuntime(bootstrapScript);
+        }
+        boolean reusable = false;
+        try {
+            mojo.updateStylesheets(runtime, stylesheets, templateLocations, compilerCallback);
+            reusable = true;
+        }
+        finally {
+            if (!reusable) {
+                mojo.releaseRuntime(runtime, false);
+                runtime = null;
+            }
+        }
+
+        // hand a long used runtime back so it is retired, the next compile (e.g. of watch) starts a fresh one
+        if (mojo.runtimeMaxExecutions > 0 && runtime.getExecutions() >= mojo.runtimeMaxExecutions) {
+            mojo.releaseRuntime(runtime, true);
+            runtime = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (runtime != null) {
+            mojo.releaseRuntime(runtime, true);
+            runtime = null;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.w3c.css.sac.CSSParseException;
+
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.vaadin.sass.internal.ScssStylesheet;
+import com.vaadin.sass.internal.handler.SCSSDocumentHandlerImpl;
+import com.vaadin.sass.internal.handler.SCSSErrorHandler;
+import com.vaadin.sass.internal.resolver.FilesystemResolver;
+
+/**
+ * Compiles SCSS with the pure Java compiler of the Vaadin project, no Ruby runtime is started.
+ * It only understands the SCSS syntax, Compass, gems and the Ruby Sass options besides load_paths are not
+ * available (see {@link AbstractSassMojo#createCompilerEngine()}). The output is always in the expanded style.
+ * <br/>
+ * With a {@link TemplateGuard} each stylesheet compiles on a worker thread. Java code can not be stopped
+ * safely, a stylesheet exceeding a limit is reported as failed and its worker is abandoned. The abandoned
+ * worker runs to the end of the compile but neither writes the css nor reports anything.
+ */
+class JavaCompilerEngine implements CompilerEngine {
+    private final AbstractSassMojo mojo;
+    private ExecutorService worker;
+
+    JavaCompilerEngine(AbstractSassMojo mojo) {
+        this.mojo = mojo;
+    }
+
+    @Override
+    public void compile(List<Entry<String, String>> stylesheets, List<Entry<String, String>> templateLocations,
+            CompilerCallback compilerCallback) throws MojoExecutionException {
+        // searched in the order of Ruby Sass, the load_paths of sassOptions first
+        final List<String> loadPaths = new ArrayList<String>();
+        for (final File loadPath : mojo.getImportLoadPaths()) {
+            loadPaths.add(loadPath.getPath());
+        }
+        for (final Entry<String, String> location : templateLocations) {
+            loadPaths.add(location.getKey());
+        }
+        final String[] loadPathArray = loadPaths.toArray(new String[loadPaths.size()]);
+
+        final TemplateGuard templateGuard = mojo.createTemplateGuard();
+        final HeapMetrics.Probe heapProbe = HeapMetrics.start();
+        for (final Entry<String, String> stylesheet : stylesheets) {
+            if (compilerCallback.isCancelled()) {
+                compilerCallback.templateSkipped(stylesheet.getKey(), stylesheet.getValue());
+                continue;
+            }
+            if (templateGuard == null) {
+                compile(stylesheet.getKey(), stylesheet.getValue(), loadPathArray, compilerCallback, null);
+            }
+            else {
+                compileGuarded(stylesheet.getKey(), stylesheet.getValue(), loadPathArray, compilerCallback, templateGuard);
+            }
+        }
+        compilerCallback.heapMeasured(heapProbe.stop());
+    }
+
+    private void compileGuarded(final String template, final String css, final String[] loadPaths,
+            final CompilerCallback compilerCallback, final TemplateGuard templateGuard) throws MojoExecutionException {
+        if (worker == null) {
+            worker = Executors.newSingleThreadExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("sass-java-compiler-%d").setDaemon(true).build());
+        }
+
+        // completes with true when the compile finished, with false when a limit was exceeded
+        final SettableFuture<Boolean> completed = SettableFuture.create();
+        final Outcome outcome = new Outcome();
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                templateGuard.start(template, new Runnable() {
+                    @Override
+                    public void run() {
+                        if (outcome.abandon()) {
+                            completed.set(false);
+                        }
+                    }
+                });
+                try {
+                    compile(template, css, loadPaths, compilerCallback, outcome);
+                }
+                finally {
+                    final long allocatedBytes = templateGuard.stop();
+                    if (!outcome.isAbandoned()) {
+                        compilerCallback.templateAllocated(css, allocatedBytes);
+                    }
+                    completed.set(true);
+                }
+            }
+        });
+
+        try {
+            if (!completed.get()) {
+                compilerCallback.compilationError(templateGuard.getReason(), template, css);
+                worker.shutdownNow();
+                worker = null;
+            }
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while compiling " + template, e);
+        }
+        catch (final ExecutionException e) {
+            throw new MojoExecutionException("Failed to compile " + template, e.getCause());
+        }
+    }
+
+    /**
+     * @param outcome Outcome of a guarded compile, results are only reported if it can be claimed. Null if unguarded.
+     */
+    private void compile(String template, String css, String[] loadPaths, CompilerCallback compilerCallback,
+            Outcome outcome) {
+        compilerCallback.templateStarted(template, css);
+
+        if (!template.endsWith(".scss")) {
+            if (claim(outcome)) {
+                compilerCallback.compilationError("The " + CompilerEngine.JAVA + " engine only supports the SCSS syntax", template, css);
+            }
+            return;
+        }
+
+        final ErrorHandler errorHandler = new ErrorHandler();
+        try {
+            final long parseStart = System.nanoTime();
+            final ScssStylesheet scss = ScssStylesheet.get(template, null, new SCSSDocumentHandlerImpl(), errorHandler);
+            if (scss == null) {
+                if (claim(outcome)) {
+                    compilerCallback.compilationError("File not found", template, css);
+                }
+                return;
+            }
+            scss.addResolver(new FilesystemResolver(loadPaths));
+            scss.setCharset(Charsets.UTF_8.name());
+            if (outcome == null || !outcome.isAbandoned()) {
+                compilerCallback.templatePhase(css, TemplateMetrics.PARSE, System.nanoTime() - parseStart);
+            }
+
+            scss.compile();
+            final String output = errorHandler.firstError == null ? scss.printState() : null;
+            if (!claim(outcome)) {
+                return;
+            }
+            if (errorHandler.firstError != null) {
+                compilerCallback.compilationError(errorHandler.firstError, template, css);
+                return;
+            }
+            compilerCallback.updatingStylesheet(template, css);
+
+            final boolean changed = StylesheetWriter.write(css, output.getBytes(Charsets.UTF_8));
+            compilerCallback.updatedStylesheeet(template, css, changed);
+        }
+        catch (final IOException e) {
+            if (claim(outcome)) {
+                compilerCallback.compilationError(e.toString(), template, css);
+            }
+        }
+        catch (final Exception e) {
+            if (claim(outcome)) {
+                compilerCallback.compilationError(errorHandler.firstError != null ? errorHandler.firstError
+                        : String.valueOf(e.getMessage()), template, css);
+            }
+        }
+        catch (final StackOverflowError e) {
+            if (claim(outcome)) {
+                compilerCallback.compilationError("Stack overflow, the template nests or recurses too deeply", template, css);
+            }
+        }
+    }
+
+    /**
+     * @return True if the results of the compile are to be reported
+     */
+    private static boolean claim(Outcome outcome) {
+        return outcome == null || outcome.claim();
+    }
+
+    @Override
+    public void close() {
+        if (worker != null) {
+            worker.shutdownNow();
+            worker = null;
+        }
+    }
+
+    /**
+     * Decides whether a guarded compile finishes or is abandoned when it exceeds a limit. The worker claims
+     * the outcome before it writes the css or reports an error, from then on it is no longer abandoned.
+     */
+    private static final class Outcome {
+        private boolean claimed;
+        private boolean abandoned;
+
+        synchronized boolean claim() {
+            claimed |= !abandoned;
+            return claimed;
+        }
+
+        synchronized boolean abandon() {
+            abandoned |= !claimed;
+            return abandoned;
+        }
+
+        synchronized boolean isAbandoned() {
+            return abandoned;
+        }
+    }
+
+    /**
+     * Keeps the first parse error, the Vaadin compiler reports errors to the handler and goes on
+     */
+    private static class ErrorHandler extends SCSSErrorHandler {
+        private String firstError;
+
+        @Override
+        public void error(CSSParseException e) {
+            record(e);
+            super.error(e);
+        }
+
+        @Override
+        public void fatalError(CSSParseException e) {
+            record(e);
+            super.fatalError(e);
+        }
+
+        private void record(CSSParseException e) {
+            if (firstError == null) {
+                firstError = e.getMessage() + " (line " + e.getLineNumber() + ", column " + e.getColumnNumber() + ")";
+            }
+        }
+    }
+}
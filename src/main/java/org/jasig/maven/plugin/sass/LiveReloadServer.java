@@ -0,0 +1,327 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.logging.Log;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Pushes the paths of changed stylesheets to browsers with Server-Sent Events, see {@link WatchMojo#liveReloadPort}.
+ * Pages include /livereload.js, which listens on /events and reloads the matching stylesheet links. Paths are
+ * sent relative to their css location so they match the end of the stylesheet URLs.
+ * <br/>
+ * All connections are handled by one selector thread with non-blocking writes: compiler threads only queue the
+ * path and wake the selector, a client that cannot keep up is disconnected instead of slowing down the others.
+ */
+class LiveReloadServer implements Closeable {
+    private static final String SCRIPT = "livereload.js";
+    private static final long HEARTBEAT_INTERVAL = 15000;
+    private static final int MAX_REQUEST_BYTES = 8 * 1024;
+    private static final int MAX_PENDING_BYTES = 64 * 1024;
+
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final Collection<String> cssLocations;
+    private final Queue<String> messages = new ConcurrentLinkedQueue<String>();
+    private final String script;
+    private final Log log;
+    private final Thread thread;
+    private long lastHeartbeat = System.currentTimeMillis();
+
+    /**
+     * Bind the server and start the selector thread
+     *
+     * @param cssLocations Locations the stylesheets are written to
+     */
+    LiveReloadServer(String host, int port, Collection<String> cssLocations, Log log) throws IOException {
+        this.cssLocations = new ArrayList<String>(cssLocations);
+        this.log = log;
+
+        final InputStream scriptStream = LiveReloadServer.class.getResourceAsStream(SCRIPT);
+        if (scriptStream == null) {
+            throw new IllegalStateException(SCRIPT + " is missing from the plugin");
+        }
+        try {
+            this.script = IOUtils.toString(scriptStream, Charsets.UTF_8.name());
+        }
+        finally {
+            IOUtils.closeQuietly(scriptStream);
+        }
+
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        try {
+            this.serverChannel.bind(new InetSocketAddress(host, port));
+            this.serverChannel.configureBlocking(false);
+            this.serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+        }
+        catch (final IOException e) {
+            IOUtils.closeQuietly(this.serverChannel);
+            IOUtils.closeQuietly(this.selector);
+            throw e;
+        }
+
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "sass-live-reload");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * @return The port the server listens on
+     */
+    int getPort() {
+        return this.serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Notify the connected clients that the css file was written, does not block
+     */
+    void stylesheetChanged(String css) {
+        String path = null;
+        for (final String location : this.cssLocations) {
+            if (css.startsWith(location + "/") && (path == null || css.length() - location.length() - 1 < path.length())) {
+                path = css.substring(location.length() + 1);
+            }
+        }
+        this.messages.add("event: css\ndata: " + (path != null ? path : css.substring(css.lastIndexOf('/') + 1)) + "\n\n");
+        this.selector.wakeup();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.thread.interrupt();
+        this.selector.close();
+        this.serverChannel.close();
+    }
+
+    private void serve() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                this.selector.select(HEARTBEAT_INTERVAL);
+                for (final SelectionKey key : this.selector.selectedKeys()) {
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        }
+                        else {
+                            if (key.isReadable()) {
+                                read(key);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                flush(key);
+                            }
+                        }
+                    }
+                    catch (final IOException e) {
+                        disconnect(key);
+                    }
+                }
+                this.selector.selectedKeys().clear();
+
+                for (String message = this.messages.poll(); message != null; message = this.messages.poll()) {
+                    broadcast(message);
+                }
+                if (System.currentTimeMillis() - this.lastHeartbeat >= HEARTBEAT_INTERVAL) {
+                    // keeps idle connections from being closed by proxies
+                    broadcast(":\n\n");
+                }
+            }
+        }
+        catch (final ClosedSelectorException e) {
+            // closed
+        }
+        catch (final IOException e) {
+            this.log.warn("Live reload server failed, browsers are no longer notified", e);
+        }
+    }
+
+    private void accept() throws IOException {
+        final SocketChannel channel = this.serverChannel.accept();
+        if (channel != null) {
+            channel.configureBlocking(false);
+            channel.register(this.selector, SelectionKey.OP_READ, new Client());
+        }
+    }
+
+    /**
+     * Read the request of a new client, anything read from an event stream client is ignored
+     */
+    private void read(SelectionKey key) throws IOException {
+        final Client client = (Client) key.attachment();
+        final ByteBuffer buffer = client.request != null ? client.request : ByteBuffer.allocate(1024);
+        if (((SocketChannel) key.channel()).read(buffer) < 0) {
+            disconnect(key);
+            return;
+        }
+        if (client.request == null) {
+            return;
+        }
+
+        final String request = new String(buffer.array(), 0, buffer.position(), Charsets.ISO_8859_1);
+        final int end = request.indexOf("\r\n\r\n");
+        if (end < 0) {
+            if (!buffer.hasRemaining()) {
+                if (buffer.capacity() >= MAX_REQUEST_BYTES) {
+                    disconnect(key);
+                    return;
+                }
+                client.request = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                client.request.put(buffer);
+            }
+            return;
+        }
+        client.request = null;
+
+        final String[] requestLine = request.substring(0, request.indexOf("\r\n")).split(" ");
+        final String path = requestLine.length > 1 ? requestLine[1].split("\\?")[0] : "";
+        if (!"GET".equals(requestLine[0])) {
+            respond(key, client, "405 Method Not Allowed", "text/plain", "");
+        }
+        else if (path.equals("/" + SCRIPT)) {
+            final String host = getHeader(request, "Host");
+            final String events = host != null ? "//" + host + "/events" : "/events";
+            respond(key, client, "200 OK", "application/javascript", this.script.replace("{events}", events));
+        }
+        else if (path.equals("/events")) {
+            client.streaming = true;
+            send(key, client, "HTTP/1.1 200 OK\r\n"
+                    + "Content-Type: text/event-stream\r\n"
+                    + "Cache-Control: no-cache\r\n"
+                    + "Access-Control-Allow-Origin: *\r\n"
+                    + "\r\n"
+                    + "retry: 1000\n\n");
+        }
+        else {
+            respond(key, client, "404 Not Found", "text/plain", "");
+        }
+    }
+
+    private void respond(SelectionKey key, Client client, String status, String contentType, String body) throws IOException {
+        final byte[] content = body.getBytes(Charsets.UTF_8);
+        client.closeAfterWrite = true;
+        send(key, client, "HTTP/1.1 " + status + "\r\n"
+                + "Content-Type: " + contentType + "; charset=UTF-8\r\n"
+                + "Content-Length: " + content.length + "\r\n"
+                + "Cache-Control: no-cache\r\n"
+                + "Access-Control-Allow-Origin: *\r\n"
+                + "Connection: close\r\n"
+                + "\r\n" + body);
+    }
+
+    private void broadcast(String message) {
+        this.lastHeartbeat = System.currentTimeMillis();
+        final List<SelectionKey> keys = new ArrayList<SelectionKey>(this.selector.keys());
+        for (final SelectionKey key : keys) {
+            final Object attachment = key.attachment();
+            if (key.isValid() && attachment instanceof Client && ((Client) attachment).streaming) {
+                try {
+                    send(key, (Client) attachment, message);
+                }
+                catch (final IOException e) {
+                    disconnect(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Queue the data for the client and write as much as possible without blocking
+     */
+    private void send(SelectionKey key, Client client, String data) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(data.getBytes(Charsets.UTF_8));
+        client.pending.add(buffer);
+        client.pendingBytes += buffer.remaining();
+        if (client.pendingBytes > MAX_PENDING_BYTES) {
+            this.log.debug("Disconnecting live reload client that does not keep up");
+            disconnect(key);
+            return;
+        }
+        flush(key);
+    }
+
+    private void flush(SelectionKey key) throws IOException {
+        final Client client = (Client) key.attachment();
+        final SocketChannel channel = (SocketChannel) key.channel();
+        for (ByteBuffer buffer = client.pending.peek(); buffer != null; buffer = client.pending.peek()) {
+            client.pendingBytes -= channel.write(buffer);
+            if (buffer.hasRemaining()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                return;
+            }
+            client.pending.poll();
+        }
+        if (client.closeAfterWrite) {
+            disconnect(key);
+        }
+        else {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+    }
+
+    private static void disconnect(SelectionKey key) {
+        key.cancel();
+        IOUtils.closeQuietly(key.channel());
+    }
+
+    private static String getHeader(String request, String name) {
+        for (final String line : request.split("\r\n")) {
+            final int separator = line.indexOf(':');
+            if (separator > 0 && line.substring(0, separator).trim().equalsIgnoreCase(name)) {
+                return line.substring(separator + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    private static final class Client {
+        final Queue<ByteBuffer> pending = new ArrayDeque<ByteBuffer>();
+        ByteBuffer request = ByteBuffer.allocate(1024);
+        int pendingBytes;
+        boolean streaming;
+        boolean closeAfterWrite;
+    }
+}
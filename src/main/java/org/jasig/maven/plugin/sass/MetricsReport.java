@@ -0,0 +1,198 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.logging.Log;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Writes the {@link TemplateMetrics} of a build as sass_metrics.json and sass_metrics.csv and logs the slowest templates.
+ * The {@link HeapMetrics} of the compile are part of the JSON report.
+ */
+class MetricsReport {
+    private static final Comparator<TemplateMetrics> SLOWEST_FIRST = new Comparator<TemplateMetrics>() {
+        @Override
+        public int compare(TemplateMetrics a, TemplateMetrics b) {
+            return Long.valueOf(b.getTotalMillis()).compareTo(a.getTotalMillis());
+        }
+    };
+
+    private final List<TemplateMetrics> metrics;
+    private final HeapMetrics heapMetrics;
+
+    /**
+     * @param heapMetrics Heap use of the compile, null if not known
+     */
+    MetricsReport(Collection<TemplateMetrics> metrics, HeapMetrics heapMetrics) {
+        this.metrics = new ArrayList<TemplateMetrics>(metrics);
+        this.heapMetrics = heapMetrics;
+        Collections.sort(this.metrics, SLOWEST_FIRST);
+    }
+
+    /**
+     * Write the JSON and CSV report into the directory
+     */
+    void write(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create " + directory);
+        }
+        Files.write(toJson(), new File(directory, "sass_metrics.json"), Charsets.UTF_8);
+        Files.write(toCsv(), new File(directory, "sass_metrics.csv"), Charsets.UTF_8);
+    }
+
+    /**
+     * Log the given number of slowest templates at info level, together with the elapsed time from the start
+     * of the first to the end of the last stylesheet and the sum of the times of all stylesheets, which is
+     * larger when stylesheets compile concurrently
+     */
+    void logSlowest(Log log, int count) {
+        if (metrics.isEmpty() || count <= 0) {
+            return;
+        }
+
+        long cumulative = 0;
+        long start = Long.MAX_VALUE;
+        long end = Long.MIN_VALUE;
+        for (final TemplateMetrics templateMetrics : metrics) {
+            cumulative += templateMetrics.getTotalMillis();
+            start = Math.min(start, templateMetrics.getStartNanos());
+            end = Math.max(end, templateMetrics.getEndNanos());
+        }
+        log.info("Compiled " + metrics.size() + " stylesheet(s) in " + TimeUnit.NANOSECONDS.toMillis(end - start)
+                + "ms (" + cumulative + "ms cumulative), slowest:");
+        for (final TemplateMetrics m : metrics.subList(0, Math.min(count, metrics.size()))) {
+            log.info("    " + m.getTotalMillis() + "ms " + m.getTemplate() + " (parse " + m.getParseMillis()
+                    + "ms, imports " + m.getImportMillis() + "ms, compass " + m.getCompassMillis() + "ms, evaluate "
+                    + m.getEvaluateMillis() + "ms, write " + m.getWriteMillis() + "ms)");
+        }
+    }
+
+    String toCsv() {
+        final StringBuilder csv = new StringBuilder();
+        csv.append("template,css,status,total_ms,parse_ms,imports_ms,compass_ms,evaluate_ms,write_ms,")
+            .append("input_bytes,output_bytes,cache_hits,cache_misses,allocated_bytes\n");
+        for (final TemplateMetrics m : metrics) {
+            csv.append(csvValue(m.getTemplate())).append(',')
+                .append(csvValue(m.getCss())).append(',')
+                .append(m.isFailed() ? "failed" : "ok").append(',')
+                .append(m.getTotalMillis()).append(',')
+                .append(m.getParseMillis()).append(',')
+                .append(m.getImportMillis()).append(',')
+                .append(m.getCompassMillis()).append(',')
+                .append(m.getEvaluateMillis()).append(',')
+                .append(m.getWriteMillis()).append(',')
+                .append(m.getInputBytes()).append(',')
+                .append(m.getOutputBytes()).append(',')
+                .append(m.getCacheHits()).append(',')
+                .append(m.getCacheMisses()).append(',')
+                .append(m.getAllocatedBytes()).append('\n');
+        }
+        return csv.toString();
+    }
+
+    String toJson() {
+        final StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        if (heapMetrics != null) {
+            json.append("  \"heap\": {")
+                .append("\"usedBeforeBytes\": ").append(heapMetrics.getUsedBeforeBytes())
+                .append(", \"usedAfterBytes\": ").append(heapMetrics.getUsedAfterBytes())
+                .append(", \"peakBytes\": ").append(heapMetrics.getPeakBytes())
+                .append(", \"maxBytes\": ").append(heapMetrics.getMaxBytes())
+                .append(", \"gcCount\": ").append(heapMetrics.getGcCount())
+                .append(", \"gcMillis\": ").append(heapMetrics.getGcMillis())
+                .append("},\n");
+        }
+        json.append("  \"stylesheets\": [");
+        for (final Iterator<TemplateMetrics> metricsItr = metrics.iterator(); metricsItr.hasNext();) {
+            final TemplateMetrics m = metricsItr.next();
+            json.append("\n    {")
+                .append("\"template\": ").append(jsonString(m.getTemplate()))
+                .append(", \"css\": ").append(jsonString(m.getCss()))
+                .append(", \"failed\": ").append(m.isFailed())
+                .append(", \"totalMillis\": ").append(m.getTotalMillis())
+                .append(", \"parseMillis\": ").append(m.getParseMillis())
+                .append(", \"importMillis\": ").append(m.getImportMillis())
+                .append(", \"compassMillis\": ").append(m.getCompassMillis())
+                .append(", \"evaluateMillis\": ").append(m.getEvaluateMillis())
+                .append(", \"writeMillis\": ").append(m.getWriteMillis())
+                .append(", \"inputBytes\": ").append(m.getInputBytes())
+                .append(", \"outputBytes\": ").append(m.getOutputBytes())
+                .append(", \"cacheHits\": ").append(m.getCacheHits())
+                .append(", \"cacheMisses\": ").append(m.getCacheMisses())
+                .append(", \"allocatedBytes\": ").append(m.getAllocatedBytes())
+                .append("}");
+            if (metricsItr.hasNext()) {
+                json.append(",");
+            }
+        }
+        json.append("\n  ]\n}\n");
+        return json.toString();
+    }
+
+    private static String csvValue(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    static String jsonString(String value) {
+        final StringBuilder json = new StringBuilder("\"");
+        for (final char c : value.toCharArray()) {
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    }
+                    else {
+                        json.append(c);
+                    }
+            }
+        }
+        return json.append('"').toString();
+    }
+}
@@ -0,0 +1,99 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * An additional css file written for every stylesheet of a {@link Resource}, e.g. a compressed
+ * variant next to the expanded css. The variants are rendered from the css tree Sass already
+ * evaluated for the main css file, the template is not parsed or evaluated again.
+ * <br/>
+ * Example configuration
+ * <pre>
+ *      &lt;outputProfile>
+ *          &lt;style>compressed&lt;/style>
+ *          &lt;suffix>.min&lt;/suffix>
+ *      &lt;/outputProfile>
+ * </pre>
+ * writes portal.min.css next to portal.css. As values are evaluated only once, colors keep the
+ * notation of the main css file's style.
+ */
+public class OutputProfile {
+
+    /**
+     * Sass output style of the variant: nested, expanded, compact or compressed
+     */
+    protected String style;
+
+    /**
+     * Inserted before the .css extension of the css file
+     */
+    protected String suffix;
+
+    /**
+     * Emit the FireSass debug info (@media -sass-debug-info) mapping rules back to their template
+     * and line, the Sass version used has no source maps.
+     */
+    protected boolean debugInfo;
+
+    /**
+     * Emit comments with the template and line of each rule
+     */
+    protected boolean lineComments;
+
+    public OutputProfile() {
+    }
+
+    OutputProfile(String style, String suffix, boolean debugInfo, boolean lineComments) {
+        this.style = style;
+        this.suffix = suffix;
+        this.debugInfo = debugInfo;
+        this.lineComments = lineComments;
+    }
+
+    public String getStyle() {
+        return style;
+    }
+
+    public String getSuffix() {
+        return suffix;
+    }
+
+    public boolean isDebugInfo() {
+        return debugInfo;
+    }
+
+    public boolean isLineComments() {
+        return lineComments;
+    }
+
+    /**
+     * @return The css file of this variant of the given css file
+     */
+    public String getOutputFile(String css) {
+        return FilenameUtils.removeExtension(css) + suffix + "." + FilenameUtils.getExtension(css);
+    }
+
+    @Override
+    public String toString() {
+        return "OutputProfile [style=" + style + ", suffix=" + suffix + ", debugInfo=" + debugInfo
+                + ", lineComments=" + lineComments + "]";
+    }
+}
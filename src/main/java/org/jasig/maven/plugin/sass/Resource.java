@@ -19,13 +19,14 @@
 package org.jasig.maven.plugin.sass;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.maven.model.FileSet;
-import org.codehaus.plexus.util.DirectoryScanner;
-import org.codehaus.plexus.util.StringUtils;
 
 public class Resource {
 
@@ -45,41 +46,51 @@ public class Resource {
      * Where to put the compiled CSS files
      */
 	protected File destination;
+
+	/**
+	 * Additional css files written for each stylesheet from the same parse, e.g. a compressed variant
+	 */
+	protected List<OutputProfile> outputProfiles;
 	
+	public List<OutputProfile> getOutputProfiles() {
+	    return outputProfiles != null ? outputProfiles : Collections.<OutputProfile>emptyList();
+	}
+
 	public Map<String, String> getDirectoriesAndDestinations() {
+	    return getDirectoriesAndDestinations(null);
+	}
+
+	/**
+	 * @param scanCache Cache for the directory scan, null to always scan
+	 */
+	Map<String, String> getDirectoriesAndDestinations(DirectoryScanCache scanCache) {
 	    
 	    final File sourceDirectory = new File(source.getDirectory());
 	    
-		// Scan for directories
-		final DirectoryScanner scanner = new DirectoryScanner();
-        scanner.setBasedir(sourceDirectory);
-    	scanner.setIncludes(source.getIncludes().toArray(new String[source.getIncludes().size()]));
-    	scanner.setExcludes(source.getExcludes().toArray(new String[source.getExcludes().size()]));
-
-        // Add default excludes to the list of excludes (see http://plexus.codehaus.org/plexus-utils/apidocs/org/codehaus/plexus/util/AbstractScanner.html#DEFAULTEXCLUDES
-        // or http://plexus.codehaus.org/plexus-utils/apidocs/org/codehaus/plexus/util/AbstractScanner.html#addDefaultExcludes() )
-        scanner.addDefaultExcludes();
-
-    	scanner.scan();
+		// Scan for directories, default excludes are always added (see http://plexus.codehaus.org/plexus-utils/apidocs/org/codehaus/plexus/util/AbstractScanner.html#DEFAULTEXCLUDES)
+	    final TemplateDirectoryScanner.Result scan;
+	    try {
+	        scan = scanCache != null
+	                ? scanCache.scan(sourceDirectory, source.getIncludes(), source.getExcludes())
+	                : new TemplateDirectoryScanner(source.getIncludes(), source.getExcludes()).scan(sourceDirectory);
+	    }
+	    catch (final IOException e) {
+	        throw new IllegalStateException("Failed to scan " + sourceDirectory + " for SASS template directories", e);
+	    }
 
-    	
     	final Map<String, String> result = new LinkedHashMap<String, String>();
     	
     	result.put(FilenameUtils.separatorsToUnix(sourceDirectory.toString()), FilenameUtils.separatorsToUnix(destination.toString()));
     	
-    	for (String included : scanner.getIncludedDirectories()) {
-    		if (!included.isEmpty()) {
-	    		final String subdir = StringUtils.difference(sourceDirectory.toString(), included);
-	    		
-	    		final File sourceDir = new File(sourceDirectory, included);
+    	for (String included : scan.getIncludedDirectories()) {
+    		final File sourceDir = new File(sourceDirectory, included);
 
-	    		File destDir = new File(this.destination, subdir);
-                if (this.relativeOutputDirectory != null && !this.relativeOutputDirectory.isEmpty()) {
-                    destDir = new File(destDir, this.relativeOutputDirectory);
-                }
-                
-                result.put(FilenameUtils.separatorsToUnix(sourceDir.toString()), FilenameUtils.separatorsToUnix(destDir.toString()));
+    		File destDir = new File(this.destination, included);
+    		if (this.relativeOutputDirectory != null && !this.relativeOutputDirectory.isEmpty()) {
+    		    destDir = new File(destDir, this.relativeOutputDirectory);
     		}
+
+    		result.put(FilenameUtils.separatorsToUnix(sourceDir.toString()), FilenameUtils.separatorsToUnix(destDir.toString()));
     	}
 
         return result;
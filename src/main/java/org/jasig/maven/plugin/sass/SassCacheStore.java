@@ -0,0 +1,227 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+
+/**
+ * Content addressed store for the parse trees Sass caches, shared by all modules, builds and
+ * branches that point at the same directory. Entries are addressed by the Sass version, the
+ * hash of the template content and the template file name, so identical partials share an
+ * entry wherever they are located. See SharedCacheStore in sass_maven_plugin.rb.
+ * <br/>
+ * Entries are written to a temporary file and moved into place, concurrent builds never see
+ * partial entries. Reads refresh the modification time of an entry, once the store grows past
+ * its maximum size the least recently used entries are deleted. Eviction is done by one
+ * process at a time, guarded by a lock file.
+ * <br/>
+ * Public as it is called from Ruby.
+ */
+public class SassCacheStore {
+    private static final Map<File, SassCacheStore> STORES = new HashMap<File, SassCacheStore>();
+    private static final String LOCK_FILE = ".lock";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final AtomicLong size = new AtomicLong(-1);
+
+    private SassCacheStore(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return The store of the directory, stores are shared within the JVM
+     */
+    static SassCacheStore get(File directory, long maxBytes) throws IOException {
+        final File canonicalDirectory = directory.getCanonicalFile();
+        synchronized (STORES) {
+            SassCacheStore store = STORES.get(canonicalDirectory);
+            if (store == null || store.maxBytes != maxBytes) {
+                Files.createDirectories(canonicalDirectory.toPath());
+                store = new SassCacheStore(canonicalDirectory.toPath(), maxBytes);
+                STORES.put(canonicalDirectory, store);
+            }
+            return store;
+        }
+    }
+
+    /**
+     * @return The cached contents, null if there is no entry for the address
+     */
+    public byte[] retrieve(String address) {
+        final Path entry = getEntry(address);
+        try {
+            final byte[] contents = Files.readAllBytes(entry);
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return contents;
+        }
+        catch (final NoSuchFileException e) {
+            return null;
+        }
+        catch (final IOException e) {
+            // evicted while reading or not readable, the template is parsed again
+            return null;
+        }
+    }
+
+    /**
+     * Store the contents under the address, replaces an existing entry
+     */
+    public void store(String address, byte[] contents) {
+        final Path entry = getEntry(address);
+        final Path tempFile = entry.resolveSibling(entry.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            Files.createDirectories(entry.getParent());
+            Files.write(tempFile, contents);
+            try {
+                Files.move(tempFile, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (final AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, entry, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch (final IOException e) {
+            // caching is best effort
+            try {
+                Files.deleteIfExists(tempFile);
+            }
+            catch (final IOException ignored) {
+            }
+            return;
+        }
+
+        // the size is unknown until the first eviction measured the store
+        if (size.get() < 0 || size.addAndGet(contents.length) > maxBytes) {
+            evict();
+        }
+    }
+
+    private Path getEntry(String address) {
+        final String hash = Hashing.sha1().newHasher().putString(address, Charsets.UTF_8).hash().toString();
+        return directory.resolve(hash.substring(0, 2)).resolve(hash.substring(2));
+    }
+
+    /**
+     * Measure the store and delete the least recently used entries until it is below 90% of the maximum size
+     */
+    private void evict() {
+        try (final FileChannel lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            final FileLock lock = lockChannel.tryLock();
+            if (lock == null) {
+                // another process is evicting
+                return;
+            }
+            try {
+                final List<Entry> entries = listEntries();
+                long total = 0;
+                for (final Entry entry : entries) {
+                    total += entry.size;
+                }
+
+                if (total > maxBytes) {
+                    Collections.sort(entries, new Comparator<Entry>() {
+                        @Override
+                        public int compare(Entry o1, Entry o2) {
+                            return Long.compare(o1.lastModified, o2.lastModified);
+                        }
+                    });
+                    final long target = maxBytes / 10 * 9;
+                    for (final Entry entry : entries) {
+                        if (total <= target) {
+                            break;
+                        }
+                        Files.deleteIfExists(entry.path);
+                        total -= entry.size;
+                    }
+                }
+                size.set(total);
+            }
+            finally {
+                lock.release();
+            }
+        }
+        catch (final IOException | OverlappingFileLockException e) {
+            // another thread of this JVM is evicting or the store is not writable, try again with the next entry
+        }
+    }
+
+    private List<Entry> listEntries() throws IOException {
+        final List<Entry> entries = new ArrayList<Entry>();
+        final long staleTempFiles = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1);
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                final String name = file.getFileName().toString();
+                final long lastModified = attrs.lastModifiedTime().toMillis();
+                // temporary files are only evicted once they are left over by a build that died
+                if (!name.equals(LOCK_FILE) && (!name.endsWith(".tmp") || lastModified < staleTempFiles)) {
+                    entries.add(new Entry(file, attrs.size(), lastModified));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // deleted by a concurrent eviction
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return entries;
+    }
+
+    private static class Entry {
+        private final Path path;
+        private final long size;
+        private final long lastModified;
+
+        Entry(Path path, long size, long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,376 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Background JVM that keeps SASS runtimes loaded between Maven invocations, started by
+ * {@link DaemonCompilerEngine}. It listens on a loopback port that is published together with
+ * an access token in a state file only readable by the user, and exits once it has been idle
+ * for the configured time.
+ * <br/>
+ * Usage: <code>SassDaemon &lt;state file> &lt;idle timeout in ms></code>
+ */
+public final class SassDaemon {
+    static final String PORT = "port";
+    static final String TOKEN = "token";
+    static final String PID = "pid";
+
+    private final File stateFile;
+    private final long idleMillis;
+    private final String token = UUID.randomUUID().toString();
+    private final Log log = new SystemStreamLog();
+    private final SassRuntimePool runtimePool = new SassRuntimePool(Runtime.getRuntime().availableProcessors());
+    private final AtomicInteger activeRequests = new AtomicInteger();
+    private volatile boolean outdated;
+    private volatile long lastActivity = System.currentTimeMillis();
+
+    private SassDaemon(File stateFile, long idleMillis) {
+        this.stateFile = stateFile;
+        this.idleMillis = idleMillis;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: SassDaemon <state file> <idle timeout in ms>");
+            System.exit(2);
+        }
+        new SassDaemon(new File(args[0]), Long.parseLong(args[1])).run();
+        // runtimes and their threads must not keep the JVM alive
+        System.exit(0);
+    }
+
+    private void run() throws IOException {
+        final ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        final ExecutorService executor = Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder().setNameFormat("sass-daemon-%d").setDaemon(true).build());
+        try {
+            serverSocket.setSoTimeout(1000);
+            writeState(serverSocket.getLocalPort());
+            log.info("SASS daemon listening on port " + serverSocket.getLocalPort() + ", idle timeout " + idleMillis + "ms");
+
+            while (true) {
+                final Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                }
+                catch (final SocketTimeoutException e) {
+                    if (activeRequests.get() == 0 && outdated) {
+                        log.info("SASS daemon replaced by another version of the plugin, shutting down");
+                        return;
+                    }
+                    if (activeRequests.get() == 0 && System.currentTimeMillis() - lastActivity > idleMillis) {
+                        log.info("SASS daemon idle for " + idleMillis + "ms, shutting down");
+                        return;
+                    }
+                    continue;
+                }
+
+                activeRequests.incrementAndGet();
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            handle(socket);
+                        }
+                        finally {
+                            lastActivity = System.currentTimeMillis();
+                            activeRequests.decrementAndGet();
+                        }
+                    }
+                });
+            }
+        }
+        finally {
+            deleteState();
+            executor.shutdownNow();
+            serverSocket.close();
+        }
+    }
+
+    private void handle(Socket socket) {
+        try {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            final int version = in.readInt();
+            if (version != DaemonProtocol.VERSION) {
+                // the client runs another build of the plugin, e.g. a rebuilt snapshot, and starts its own daemon
+                log.info("Rejected SASS compile request of protocol version " + version + ", this daemon speaks "
+                        + DaemonProtocol.VERSION);
+                reject(out, "SASS daemon speaks protocol version " + DaemonProtocol.VERSION + ", not " + version);
+                outdated = true;
+                return;
+            }
+            if (!token.equals(DaemonProtocol.readString(in))) {
+                log.warn("Rejected SASS compile request from " + socket.getRemoteSocketAddress());
+                reject(out, "Invalid SASS daemon token");
+                return;
+            }
+            final String workingDirectory = DaemonProtocol.readString(in);
+            final String bootstrapScript = DaemonProtocol.readString(in);
+            final String compassScript = DaemonProtocol.readString(in);
+            final Map<String, String> options = DaemonProtocol.readMap(in);
+            final List<Entry<String, String>> stylesheets = DaemonProtocol.readPairs(in);
+            final List<String> loadPaths = DaemonProtocol.readList(in);
+            final Map<String, List<OutputProfile>> outputProfiles = DaemonProtocol.readOutputProfiles(in);
+            final String cacheStoreDirectory = DaemonProtocol.readString(in);
+            final long cacheStoreMaxBytes = in.readLong();
+            final boolean failFast = in.readBoolean();
+            final int runtimeMaxExecutions = in.readInt();
+            final int runtimeMaxHeapUsage = in.readInt();
+            final long templateTimeoutMillis = in.readLong();
+            final long templateMaxAllocationBytes = in.readLong();
+            final boolean debug = in.readBoolean();
+
+            SassCacheStore cacheStore = null;
+            if (!DaemonProtocol.NO_CACHE_STORE.equals(cacheStoreDirectory)) {
+                try {
+                    cacheStore = SassCacheStore.get(new File(cacheStoreDirectory), cacheStoreMaxBytes);
+                }
+                catch (final IOException e) {
+                    log.warn("Failed to open shared SASS cache " + cacheStoreDirectory + ", using cache_location instead", e);
+                }
+            }
+
+            final RemoteCompilerCallback compilerCallback = new RemoteCompilerCallback(log, out, failFast);
+            try {
+                final SassRuntime runtime = runtimePool.acquire(bootstrapScript, workingDirectory, log);
+                boolean reusable = false;
+                try {
+                    // concurrent requests share the heap, the numbers of each are approximate
+                    final HeapMetrics.Probe heapProbe = HeapMetrics.start();
+                    if (!DaemonProtocol.NO_COMPASS.equals(compassScript) && !runtime.isCompassLoaded()) {
+                        runtime.activateCompass(compassScript);
+                    }
+                    runtime.configure(SassOptions.parse(options), ImmutableList.<Entry<String, String>>of(), loadPaths,
+                            cacheStore, outputProfiles, debug);
+                    runtime.updateStylesheets(stylesheets, compilerCallback,
+                            templateTimeoutMillis > 0 || templateMaxAllocationBytes > 0
+                                    ? new TemplateGuard(templateTimeoutMillis, templateMaxAllocationBytes) : null);
+                    compilerCallback.heapMeasured(heapProbe.stop());
+                    reusable = true;
+                }
+                finally {
+                    if (reusable) {
+                        runtimePool.release(runtime, runtimeMaxExecutions, runtimeMaxHeapUsage, log);
+                    }
+                    else {
+                        runtimePool.discard(runtime);
+                    }
+                }
+            }
+            catch (final RuntimeException e) {
+                log.error("Failed to compile " + stylesheets.size() + " SASS templates", e);
+                compilerCallback.send(DaemonProtocol.FAILED, e.toString());
+                return;
+            }
+            compilerCallback.send(DaemonProtocol.DONE);
+        }
+        catch (final IOException | IllegalStateException e) {
+            log.warn("Lost connection to SASS daemon client", e);
+        }
+        finally {
+            IOUtils.closeQuietly(socket);
+        }
+    }
+
+    private static void reject(DataOutputStream out, String message) throws IOException {
+        out.writeByte(DaemonProtocol.REJECTED);
+        DaemonProtocol.writeString(out, message);
+        out.flush();
+    }
+
+    private void writeState(int port) throws IOException {
+        final Properties state = new Properties();
+        state.setProperty(PORT, Integer.toString(port));
+        state.setProperty(TOKEN, token);
+        state.setProperty(PID, ManagementFactory.getRuntimeMXBean().getName());
+
+        // only the user starting the daemon may read the token
+        final File tempFile = new File(stateFile.getPath() + ".tmp");
+        tempFile.delete();
+        tempFile.createNewFile();
+        tempFile.setReadable(false, false);
+        tempFile.setReadable(true, true);
+        final OutputStream out = new FileOutputStream(tempFile);
+        try {
+            state.store(out, "SASS daemon");
+        }
+        finally {
+            IOUtils.closeQuietly(out);
+        }
+        if (!tempFile.renameTo(stateFile)) {
+            stateFile.delete();
+            if (!tempFile.renameTo(stateFile)) {
+                throw new IOException("Failed to write " + stateFile);
+            }
+        }
+    }
+
+    /**
+     * Delete the state file unless a newer daemon already replaced it
+     */
+    private void deleteState() {
+        final Properties state = readState(stateFile);
+        if (state != null && token.equals(state.getProperty(TOKEN))) {
+            stateFile.delete();
+        }
+    }
+
+    /**
+     * @return The state of the daemon, null if there is none
+     */
+    static Properties readState(File stateFile) {
+        if (!stateFile.isFile()) {
+            return null;
+        }
+        final Properties state = new Properties();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(stateFile);
+            state.load(in);
+            return state;
+        }
+        catch (final IOException e) {
+            return null;
+        }
+        finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Forwards the callbacks to the client as {@link DaemonProtocol} events
+     */
+    private static class RemoteCompilerCallback extends CompilerCallback {
+        private final DataOutputStream out;
+        private final boolean failFast;
+
+        RemoteCompilerCallback(Log log, DataOutputStream out, boolean failFast) {
+            super(log);
+            this.out = out;
+            this.failFast = failFast;
+        }
+
+        @Override
+        public void compilationError(String error, String template, String css) {
+            send(DaemonProtocol.COMPILATION_ERROR, error, template, css);
+            if (failFast) {
+                cancel();
+            }
+        }
+
+        @Override
+        public void templateSkipped(String template, String css) {
+            send(DaemonProtocol.TEMPLATE_SKIPPED, template, css);
+        }
+
+        @Override
+        public synchronized void heapMeasured(HeapMetrics heapMetrics) {
+            try {
+                out.writeByte(DaemonProtocol.HEAP_METRICS);
+                out.writeLong(heapMetrics.getUsedBeforeBytes());
+                out.writeLong(heapMetrics.getUsedAfterBytes());
+                out.writeLong(heapMetrics.getPeakBytes());
+                out.writeLong(heapMetrics.getMaxBytes());
+                out.writeLong(heapMetrics.getGcCount());
+                out.writeLong(heapMetrics.getGcMillis());
+                out.flush();
+            }
+            catch (final IOException e) {
+                throw new IllegalStateException("Lost connection to SASS daemon client", e);
+            }
+        }
+
+        @Override
+        public void templateStarted(String template, String css) {
+            send(DaemonProtocol.TEMPLATE_STARTED, template, css);
+        }
+
+        @Override
+        public void templatePhase(String css, String phase, long nanos) {
+            send(DaemonProtocol.TEMPLATE_PHASE, css, phase, Long.toString(nanos));
+        }
+
+        @Override
+        public void templateAllocated(String css, long bytes) {
+            send(DaemonProtocol.TEMPLATE_ALLOCATED, css, Long.toString(bytes));
+        }
+
+        @Override
+        public void cacheAccess(String css, boolean hit) {
+            send(DaemonProtocol.CACHE_ACCESS, css, Boolean.toString(hit));
+        }
+
+        @Override
+        public void updatingStylesheet(String template, String css) {
+            send(DaemonProtocol.UPDATING_STYLESHEET, template, css);
+        }
+
+        @Override
+        public void updatedStylesheeet(String template, String css, boolean changed) {
+            send(DaemonProtocol.UPDATED_STYLESHEET, template, css, Boolean.toString(changed));
+        }
+
+        synchronized void send(byte event, String... values) {
+            try {
+                out.writeByte(event);
+                for (final String value : values) {
+                    DaemonProtocol.writeString(out, value);
+                }
+                out.flush();
+            }
+            catch (final IOException e) {
+                // aborts the compile, the client is gone
+                throw new IllegalStateException("Lost connection to SASS daemon client", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.regex.Pattern;
+
+/**
+ * Typed form of the sassOptions configuration. The configured values are Ruby literals, the common
+ * ones (booleans, nil, numbers, symbols and strings without interpolation) are converted here so
+ * they can be handed to Sass::Plugin.options as Java objects, see sass_maven_plugin.rb. Anything
+ * else (arrays, hashes, method calls) is kept as an expression that is evaluated by Ruby.
+ */
+final class SassOptions {
+    private static final Pattern INTEGER = Pattern.compile("-?\\d+");
+    private static final Pattern FLOAT = Pattern.compile("-?\\d+\\.\\d+");
+    private static final Pattern SYMBOL = Pattern.compile(":[a-zA-Z_][a-zA-Z0-9_]*[?!]?");
+
+    private final Map<String, Object> values = new LinkedHashMap<String, Object>();
+    private final Map<String, String> symbols = new LinkedHashMap<String, String>();
+    private final Map<String, String> expressions = new LinkedHashMap<String, String>();
+    private final Map<String, String> literals = new LinkedHashMap<String, String>();
+
+    /**
+     * @param options Option name to Ruby literal
+     */
+    static SassOptions parse(Map<String, String> options) {
+        final SassOptions sassOptions = new SassOptions();
+        for (final Entry<String, String> option : options.entrySet()) {
+            sassOptions.putLiteral(option.getKey(), option.getValue());
+        }
+        return sassOptions;
+    }
+
+    /**
+     * Set an option to a Java value, replaces any value the option had before
+     */
+    void put(String name, Object value) {
+        remove(name);
+        values.put(name, value);
+        literals.put(name, value instanceof String ? quote((String) value) : String.valueOf(value == null ? "nil" : value));
+    }
+
+    /**
+     * Set an option to a Ruby literal, replaces any value the option had before
+     */
+    void putLiteral(String name, String literal) {
+        remove(name);
+        literals.put(name, literal);
+
+        final String trimmed = literal == null ? "nil" : literal.trim();
+        if ("true".equals(trimmed) || "false".equals(trimmed)) {
+            values.put(name, Boolean.valueOf(trimmed));
+        }
+        else if ("nil".equals(trimmed)) {
+            values.put(name, null);
+        }
+        else if (INTEGER.matcher(trimmed).matches()) {
+            try {
+                values.put(name, Long.valueOf(trimmed));
+            }
+            catch (final NumberFormatException e) {
+                expressions.put(name, trimmed);
+            }
+        }
+        else if (FLOAT.matcher(trimmed).matches()) {
+            values.put(name, Double.valueOf(trimmed));
+        }
+        else if (SYMBOL.matcher(trimmed).matches()) {
+            symbols.put(name, trimmed.substring(1));
+        }
+        else {
+            final String string = unquote(trimmed);
+            if (string != null) {
+                values.put(name, string);
+            }
+            else {
+                expressions.put(name, trimmed);
+            }
+        }
+    }
+
+    /**
+     * @return True if the option is set
+     */
+    boolean contains(String name) {
+        return values.containsKey(name) || symbols.containsKey(name) || expressions.containsKey(name);
+    }
+
+    /**
+     * @return The strings of an option set to a plain string or an array literal of plain strings, an empty
+     * list if the option is not set, null if the value is anything else
+     */
+    List<String> getStrings(String name) {
+        if (!contains(name)) {
+            return Collections.emptyList();
+        }
+        final Object value = values.get(name);
+        if (value instanceof String) {
+            return Collections.singletonList((String) value);
+        }
+        final String expression = expressions.get(name);
+        if (expression == null || !expression.startsWith("[") || !expression.endsWith("]")) {
+            return null;
+        }
+
+        final List<String> strings = new ArrayList<String>();
+        final String elements = expression.substring(1, expression.length() - 1).trim();
+        int start = 0;
+        while (start < elements.length()) {
+            // the element ends at the first comma after its closing quote
+            final char quote = elements.charAt(start);
+            int end = start + 1;
+            while (end < elements.length() && (elements.charAt(end) != quote || elements.charAt(end - 1) == '\\')) {
+                end++;
+            }
+            final String string = end < elements.length() ? unquote(elements.substring(start, end + 1)) : null;
+            if (string == null) {
+                return null;
+            }
+            strings.add(string);
+
+            start = end + 1;
+            while (start < elements.length() && Character.isWhitespace(elements.charAt(start))) {
+                start++;
+            }
+            if (start < elements.length() && elements.charAt(start++) != ',') {
+                return null;
+            }
+            while (start < elements.length() && Character.isWhitespace(elements.charAt(start))) {
+                start++;
+            }
+        }
+        return strings;
+    }
+
+    private void remove(String name) {
+        values.remove(name);
+        symbols.remove(name);
+        expressions.remove(name);
+        literals.remove(name);
+    }
+
+    /**
+     * @return The value as a single quoted Ruby string literal
+     */
+    static String quote(String value) {
+        return "'" + value.replace("\\", "\\\\").replace("'", "\\'") + "'";
+    }
+
+    /**
+     * @return The content of a single or double quoted string literal, null if the literal is no plain string
+     */
+    static String unquote(String literal) {
+        if (literal.length() < 2) {
+            return null;
+        }
+        final char quote = literal.charAt(0);
+        if ((quote != '\'' && quote != '"') || literal.charAt(literal.length() - 1) != quote) {
+            return null;
+        }
+
+        final StringBuilder string = new StringBuilder(literal.length());
+        for (int i = 1; i < literal.length() - 1; i++) {
+            final char c = literal.charAt(i);
+            if (c == quote) {
+                // ends the literal before its last character, e.g. 'a' + 'b'
+                return null;
+            }
+            if (quote == '"' && c == '#' && i + 1 < literal.length() - 1 && literal.charAt(i + 1) == '{') {
+                // interpolation
+                return null;
+            }
+            if (c != '\\') {
+                string.append(c);
+                continue;
+            }
+
+            if (i + 1 == literal.length() - 1) {
+                // escaped closing quote, not terminated
+                return null;
+            }
+            final char escaped = literal.charAt(++i);
+            if (escaped == '\\' || escaped == quote) {
+                string.append(escaped);
+            }
+            else if (quote == '\'') {
+                // single quoted strings keep unknown escapes as they are
+                string.append(c).append(escaped);
+            }
+            else if (escaped == 'n') {
+                string.append('\n');
+            }
+            else if (escaped == 't') {
+                string.append('\t');
+            }
+            else {
+                return null;
+            }
+        }
+        return string.toString();
+    }
+
+    /**
+     * @return Options with a String, Boolean, Long, Double or null value
+     */
+    Map<String, Object> getValues() {
+        return values;
+    }
+
+    /**
+     * @return Options with a Symbol value, mapped to the name of the symbol
+     */
+    Map<String, String> getSymbols() {
+        return symbols;
+    }
+
+    /**
+     * @return Options with a value that has to be evaluated by Ruby, mapped to the expression
+     */
+    Map<String, String> getExpressions() {
+        return expressions;
+    }
+
+    /**
+     * @return All options as Ruby literals, {@link #parse(Map)} of them results in the same options
+     */
+    Map<String, String> getLiterals() {
+        return literals;
+    }
+
+    @Override
+    public String toString() {
+        final Map<String, Object> all = new LinkedHashMap<String, Object>(values);
+        for (final Entry<String, String> symbol : symbols.entrySet()) {
+            all.put(symbol.getKey(), ":" + symbol.getValue());
+        }
+        all.putAll(expressions);
+        return all.toString();
+    }
+}
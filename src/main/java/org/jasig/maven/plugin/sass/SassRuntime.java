@@ -0,0 +1,222 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.commons.io.IOUtils;
+import org.jruby.embed.LocalContextScope;
+import org.jruby.embed.ScriptingContainer;
+
+/**
+ * A JRuby runtime that has already loaded rubygems, Sass and (optionally) Compass. The
+ * bootstrap script is parsed and executed once when the runtime is started, together with
+ * sass_maven_plugin.rb which defines the entry points the typed methods of this class call.
+ * Executions pass their configuration as Java objects, no per-execution Ruby code is parsed.
+ */
+class SassRuntime {
+    private static final String PLUGIN_SCRIPT = "sass_maven_plugin.rb";
+
+    private final String bootstrapScript;
+    private final String workingDirectory;
+    private final ScriptingContainer container;
+    private final Object plugin;
+    private final long bootMillis;
+    private int executions;
+
+    private SassRuntime(String bootstrapScript, String workingDirectory, ScriptingContainer container, Object plugin,
+            long bootMillis) {
+        this.bootstrapScript = bootstrapScript;
+        this.workingDirectory = workingDirectory;
+        this.container = container;
+        this.plugin = plugin;
+        this.bootMillis = bootMillis;
+    }
+
+    /**
+     * Start a new JRuby runtime in the working directory of this JVM and run the bootstrap script in it
+     */
+    static SassRuntime boot(String bootstrapScript) {
+        return boot(bootstrapScript, System.getProperty("user.dir"));
+    }
+
+    /**
+     * Start a new JRuby runtime and run the bootstrap script in it. Relative paths, e.g. of the Compass
+     * configuration and the sassOptions, are resolved against the working directory for the life of the
+     * runtime.
+     */
+    static SassRuntime boot(String bootstrapScript, String workingDirectory) {
+        final long start = System.currentTimeMillis();
+
+        // The runtime is only ever used by one thread at a time (see SassRuntimePool) but that
+        // thread may differ between executions, so it must not be bound to a thread local.
+        final ScriptingContainer container = new ScriptingContainer(LocalContextScope.SINGLETHREAD);
+        container.setClassLoader(SassRuntime.class.getClassLoader());
+        container.setCurrentDirectory(workingDirectory);
+        container.parse(bootstrapScript).run();
+
+        final InputStream pluginScript = SassRuntime.class.getResourceAsStream(PLUGIN_SCRIPT);
+        if (pluginScript == null) {
+            container.terminate();
+            throw new IllegalStateException(PLUGIN_SCRIPT + " is missing from the plugin");
+        }
+        try {
+            container.parse(pluginScript, PLUGIN_SCRIPT).run();
+        }
+        finally {
+            IOUtils.closeQuietly(pluginScript);
+        }
+        final Object plugin = container.runScriptlet("SassMavenPlugin");
+
+        return new SassRuntime(bootstrapScript, workingDirectory, container, plugin, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Load Compass into a runtime whose bootstrap script did not, see {@link AbstractSassMojo#getCompassScript()}.
+     * Compass stays loaded for the life of the runtime.
+     */
+    void activateCompass(String compassScript) {
+        container.parse(compassScript).run();
+        container.callMethod(plugin, "time_compass_functions");
+    }
+
+    /**
+     * @return True if Compass was loaded by the bootstrap script or {@link #activateCompass(String)}
+     */
+    boolean isCompassLoaded() {
+        return Boolean.TRUE.equals(container.callMethod(plugin, "compass_loaded", Boolean.class));
+    }
+
+    /**
+     * Reset Sass::Plugin and configure it for an execution
+     *
+     * @param templateLocations Template location to css location, compiled by {@link #watch(CompilerCallback)}
+     * @param loadPaths Additional directories imports are resolved against
+     * @param cacheStore Shared store for the Sass cache, null to use the cache_location option
+     * @param outputProfiles css location to the additional css files written for the stylesheets below it
+     * @param debug Print the resulting Sass (and Compass) configuration
+     */
+    void configure(SassOptions sassOptions, List<Entry<String, String>> templateLocations, List<String> loadPaths,
+            SassCacheStore cacheStore, Map<String, List<OutputProfile>> outputProfiles, boolean debug) {
+        container.callMethod(plugin, "configure", sassOptions.getValues(), sassOptions.getSymbols(),
+                sassOptions.getExpressions(), toPairs(templateLocations), loadPaths.toArray(new String[loadPaths.size()]),
+                cacheStore, outputProfiles, debug);
+    }
+
+    /**
+     * Compile the stylesheets with the configuration set by {@link #configure(SassOptions, List, List, SassCacheStore, Map, boolean)}
+     *
+     * @param stylesheets Template to css file pairs
+     * @param templateGuard Limits for each stylesheet, null for none
+     */
+    void updateStylesheets(List<Entry<String, String>> stylesheets, CompilerCallback compilerCallback,
+            TemplateGuard templateGuard) {
+        invoke("update_stylesheets", compilerCallback, new Object[] { toPairs(stylesheets), templateGuard });
+    }
+
+    /**
+     * Watch the configured template locations with Sass::Plugin.watch, does not return
+     */
+    void watch(CompilerCallback compilerCallback) {
+        invoke("watch", compilerCallback, new Object[0]);
+    }
+
+    private Object invoke(String method, CompilerCallback compilerCallback, Object[] args) {
+        executions++;
+        container.put("$compiler_callback", compilerCallback);
+        try {
+            return container.callMethod(plugin, method, args);
+        }
+        finally {
+            container.put("$compiler_callback", null);
+        }
+    }
+
+    private static String[][] toPairs(List<Entry<String, String>> entries) {
+        final List<String[]> pairs = new ArrayList<String[]>(entries.size());
+        for (final Entry<String, String> entry : entries) {
+            pairs.add(new String[] { entry.getKey(), entry.getValue() });
+        }
+        return pairs.toArray(new String[pairs.size()][]);
+    }
+
+    /**
+     * @return The gem directories the bootstrap script added to the load path, see {@link GemBundleIndex}
+     */
+    List<String> getGemLoadPaths() {
+        final List<String> loadPaths = new ArrayList<String>();
+        for (final Object loadPath : container.callMethod(plugin, "gem_load_paths", List.class)) {
+            loadPaths.add(String.valueOf(loadPath));
+        }
+        return loadPaths;
+    }
+
+    /**
+     * @return Name to path of the Compass frameworks registered by the bootstrap script, see {@link GemBundleIndex}
+     */
+    Map<String, String> getFrameworks() {
+        final Map<String, String> frameworks = new LinkedHashMap<String, String>();
+        for (final Object framework : container.callMethod(plugin, "frameworks", Map.class).entrySet()) {
+            final Map.Entry<?, ?> entry = (Map.Entry<?, ?>) framework;
+            frameworks.put(String.valueOf(entry.getKey()), String.valueOf(entry.getValue()));
+        }
+        return frameworks;
+    }
+
+    /**
+     * Release all resources held by the runtime, it must not be used afterwards
+     */
+    void terminate() {
+        container.terminate();
+    }
+
+    /**
+     * @return The script that was used to start this runtime, runtimes with the same bootstrap script and
+     * working directory are interchangeable.
+     */
+    String getBootstrapScript() {
+        return bootstrapScript;
+    }
+
+    /**
+     * @return The directory relative paths are resolved against
+     */
+    String getWorkingDirectory() {
+        return workingDirectory;
+    }
+
+    /**
+     * @return Time in milliseconds it took to start the runtime and run the bootstrap script
+     */
+    long getBootMillis() {
+        return bootMillis;
+    }
+
+    /**
+     * @return Number of executions run in this runtime so far
+     */
+    int getExecutions() {
+        return executions;
+    }
+}
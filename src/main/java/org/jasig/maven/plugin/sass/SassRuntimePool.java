@@ -0,0 +1,154 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Keeps started {@link SassRuntime}s around so that later executions of the plugin can skip
+ * JRuby startup and gem loading. Maven keeps the plugin class realm for the whole session,
+ * so the shared pool lives as long as the reactor build.
+ * <br/>
+ * Runtimes are keyed by their bootstrap script, which covers the gem paths, the loaded gems
+ * and whether Compass is enabled, and by their working directory, which Compass reads its
+ * project configuration from. A runtime is used by a single execution at a time.
+ * <br/>
+ * Each runtime holds on to a complete Ruby heap, so runtimes are retired after a number of
+ * executions and no runtime is kept while the heap of the JVM is close to full.
+ */
+class SassRuntimePool {
+    static final SassRuntimePool SHARED = new SassRuntimePool(Runtime.getRuntime().availableProcessors());
+
+    private final Map<String, LinkedList<SassRuntime>> idle = new HashMap<String, LinkedList<SassRuntime>>();
+    private final int maxIdlePerKey;
+    private long savedMillis;
+    private int reuses;
+
+    SassRuntimePool(int maxIdlePerKey) {
+        this.maxIdlePerKey = maxIdlePerKey;
+    }
+
+    /**
+     * Get a runtime that has run the bootstrap script in the working directory of this JVM, either an idle
+     * one from the pool or a newly started one.
+     */
+    SassRuntime acquire(String bootstrapScript, Log log) {
+        return acquire(bootstrapScript, System.getProperty("user.dir"), log);
+    }
+
+    /**
+     * Get a runtime that has run the bootstrap script in the working directory, either an idle one from the
+     * pool or a newly started one.
+     */
+    SassRuntime acquire(String bootstrapScript, String workingDirectory, Log log) {
+        synchronized (this) {
+            final LinkedList<SassRuntime> runtimes = idle.get(getKey(bootstrapScript, workingDirectory));
+            if (runtimes != null && !runtimes.isEmpty()) {
+                final SassRuntime runtime = runtimes.removeFirst();
+                reuses++;
+                savedMillis += runtime.getBootMillis();
+                log.info("Reusing warm SASS runtime, skipped " + runtime.getBootMillis() + "ms of startup ("
+                        + savedMillis + "ms saved over " + reuses + " reuses)");
+                return runtime;
+            }
+        }
+
+        final SassRuntime runtime = SassRuntime.boot(bootstrapScript, workingDirectory);
+        log.info("Started SASS runtime in " + runtime.getBootMillis() + "ms");
+        return runtime;
+    }
+
+    /**
+     * Return a runtime to the pool once the execution using it has completed normally. Runtimes
+     * beyond the idle limit are terminated.
+     *
+     * @param maxExecutions Terminate the runtime if it ran this many executions, 0 for no limit
+     * @param maxHeapUsage Terminate the runtime and all idle runtimes if more than this percentage of the maximum
+     * heap is in use, 0 for no limit
+     */
+    void release(SassRuntime runtime, int maxExecutions, int maxHeapUsage, Log log) {
+        if (maxExecutions > 0 && runtime.getExecutions() >= maxExecutions) {
+            log.debug("Retiring SASS runtime after " + runtime.getExecutions() + " executions");
+            runtime.terminate();
+            return;
+        }
+        final int heapUsage = HeapMetrics.getHeapUsage();
+        if (maxHeapUsage > 0 && heapUsage > maxHeapUsage) {
+            log.info("Heap " + heapUsage + "% full, terminating idle SASS runtimes");
+            runtime.terminate();
+            clear();
+            return;
+        }
+        release(runtime);
+    }
+
+    /**
+     * Return a runtime to the pool once the execution using it has completed normally. Runtimes
+     * beyond the idle limit are terminated.
+     */
+    void release(SassRuntime runtime) {
+        synchronized (this) {
+            final String key = getKey(runtime.getBootstrapScript(), runtime.getWorkingDirectory());
+            LinkedList<SassRuntime> runtimes = idle.get(key);
+            if (runtimes == null) {
+                runtimes = new LinkedList<SassRuntime>();
+                idle.put(key, runtimes);
+            }
+            if (runtimes.size() < maxIdlePerKey) {
+                runtimes.addFirst(runtime);
+                return;
+            }
+        }
+
+        runtime.terminate();
+    }
+
+    /**
+     * Terminate all idle runtimes
+     */
+    void clear() {
+        final List<SassRuntime> runtimes = new ArrayList<SassRuntime>();
+        synchronized (this) {
+            for (final LinkedList<SassRuntime> idleRuntimes : idle.values()) {
+                runtimes.addAll(idleRuntimes);
+            }
+            idle.clear();
+        }
+        for (final SassRuntime runtime : runtimes) {
+            runtime.terminate();
+        }
+    }
+
+    private static String getKey(String bootstrapScript, String workingDirectory) {
+        return workingDirectory + '\n' + bootstrapScript;
+    }
+
+    /**
+     * Terminate a runtime that must not be reused, e.g. because a script failed in it
+     */
+    void discard(SassRuntime runtime) {
+        runtime.terminate();
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+/**
+ * Writes compiled css files only if their content changed, so unchanged stylesheets keep their
+ * timestamp and do not trigger resource copying, repackaging or reloading further down the line.
+ * The existing file is compared in fixed size chunks, a changed file is written next to it and
+ * moved into place atomically so readers never see a partially written stylesheet.
+ * <br/>
+ * Used by Sass::Plugin::Compiler#write_file (see sass_maven_plugin.rb) and the Java engine.
+ */
+public final class StylesheetWriter {
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private StylesheetWriter() {
+    }
+
+    /**
+     * @return True if the file was written, false if it already had the content
+     */
+    public static boolean write(String file, byte[] content) throws IOException {
+        final Path path = Paths.get(file);
+        if (hasContent(path, content)) {
+            return false;
+        }
+
+        final Path parent = path.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        // created like any other file so the css gets the permissions of the umask, not the owner only
+        // permissions of Files.createTempFile
+        final Path tempFile = parent.resolve("." + path.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            Files.write(tempFile, content, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            try {
+                Files.move(tempFile, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch (final AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally {
+            Files.deleteIfExists(tempFile);
+        }
+        return true;
+    }
+
+    /**
+     * @return True if the file exists and has exactly the content
+     */
+    static boolean hasContent(Path path, byte[] content) throws IOException {
+        if (!Files.isRegularFile(path) || Files.size(path) != content.length) {
+            return false;
+        }
+
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final ByteBuffer chunk = ByteBuffer.allocate(Math.min(CHUNK_SIZE, Math.max(1, content.length)));
+            int position = 0;
+            while (position < content.length) {
+                chunk.clear();
+                chunk.limit(Math.min(chunk.capacity(), content.length - position));
+                final int read = channel.read(chunk);
+                if (read < 0) {
+                    return false;
+                }
+                chunk.flip();
+                if (!chunk.equals(ByteBuffer.wrap(content, position, read))) {
+                    return false;
+                }
+                position += read;
+            }
+            // the file must not have grown since its size was checked
+            chunk.clear();
+            return channel.read(chunk) < 0;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.commons.io.FilenameUtils;
+import org.codehaus.plexus.util.DirectoryScanner;
+
+/**
+ * Finds the directories below a base directory that match include patterns and do not match exclude
+ * patterns, the same directories a plexus {@link DirectoryScanner} with default excludes reports as
+ * included directories. Subtrees are skipped as soon as no include pattern can match below them or an
+ * exclude pattern matches everything below them, so large excluded vendor trees are never listed.
+ */
+class TemplateDirectoryScanner {
+    private final List<GlobPattern> includes;
+    private final List<GlobPattern> excludes;
+
+    TemplateDirectoryScanner(List<String> includes, List<String> excludes) {
+        this.includes = GlobPattern.compileAll(includes);
+        final List<String> allExcludes = new ArrayList<String>(excludes);
+        allExcludes.addAll(Arrays.asList(DirectoryScanner.DEFAULTEXCLUDES));
+        this.excludes = GlobPattern.compileAll(allExcludes);
+    }
+
+    /**
+     * Walk the directory tree
+     */
+    Result scan(final File baseDirectory) throws IOException {
+        final Path base = baseDirectory.toPath();
+        final List<String> included = new ArrayList<String>();
+        final Map<String, Long> visited = new LinkedHashMap<String, Long>();
+
+        Files.walkFileTree(base, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                final String relative = FilenameUtils.separatorsToUnix(base.relativize(dir).toString());
+                final String[] segments = GlobPattern.split(relative);
+                visited.put(relative, attrs.lastModifiedTime().toMillis());
+
+                if (segments.length > 0 && matchesAny(includes, segments) && !matchesAny(excludes, segments)) {
+                    included.add(relative);
+                }
+
+                for (final GlobPattern exclude : excludes) {
+                    if (exclude.matchesAllBelow(segments)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                }
+                for (final GlobPattern include : includes) {
+                    if (include.couldMatchBelow(segments)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                }
+                return FileVisitResult.SKIP_SUBTREE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                if (e instanceof FileSystemLoopException) {
+                    return FileVisitResult.CONTINUE;
+                }
+                throw e;
+            }
+        });
+
+        Collections.sort(included);
+        return new Result(included, visited);
+    }
+
+    private static boolean matchesAny(List<GlobPattern> patterns, String[] path) {
+        for (final GlobPattern pattern : patterns) {
+            if (pattern.matches(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Included directories of a scan together with the modification time of every directory that was
+     * listed. Adding, removing or renaming an entry changes the modification time of its directory, so
+     * the result stays valid as long as none of the listed directories changed.
+     */
+    static final class Result {
+        private final List<String> includedDirectories;
+        private final Map<String, Long> directoryTimestamps;
+
+        Result(List<String> includedDirectories, Map<String, Long> directoryTimestamps) {
+            this.includedDirectories = includedDirectories;
+            this.directoryTimestamps = directoryTimestamps;
+        }
+
+        /**
+         * @return The included directories relative to the base directory, with unix separators
+         */
+        List<String> getIncludedDirectories() {
+            return includedDirectories;
+        }
+
+        /**
+         * @return Modification time of every listed directory by path relative to the base directory
+         */
+        Map<String, Long> getDirectoryTimestamps() {
+            return directoryTimestamps;
+        }
+
+        /**
+         * @return true if none of the listed directories changed since the scan
+         */
+        boolean isCurrent(File baseDirectory) {
+            for (final Entry<String, Long> directory : directoryTimestamps.entrySet()) {
+                final File file = new File(baseDirectory, directory.getKey());
+                if (!file.isDirectory() || file.lastModified() != directory.getValue()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Limits the time and memory the compilation of a single stylesheet may take, see
+ * {@link AbstractSassMojo#templateTimeout} and {@link AbstractSassMojo#templateMaxAllocation}. The
+ * compiling thread announces each stylesheet with {@link #start(String, Runnable)}, a shared watchdog
+ * thread checks the running compile and calls its interrupt once a limit is exceeded. The Ruby side
+ * (SassMavenPlugin.guarded) raises into the compiling thread, the stylesheet is reported as failed
+ * and the remaining stylesheets are compiled.
+ * <br/>
+ * Memory is measured as the bytes allocated by the compiling thread, which needs the thread allocation
+ * counter of the HotSpot JVM. Elsewhere only the time limit applies.
+ * <br/>
+ * A guard is used by one compiling thread at a time. Public as it is called from Ruby.
+ */
+public class TemplateGuard {
+    private static final long CHECK_INTERVAL = 50;
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("sass-template-guard").setDaemon(true).build());
+
+    private final long timeoutNanos;
+    private final long maxAllocatedBytes;
+    private long threadId;
+    private long startNanos;
+    private long startAllocatedBytes;
+    private Runnable interrupt;
+    private ScheduledFuture<?> check;
+    private String reason;
+
+    /**
+     * @param timeoutMillis Time limit per stylesheet, 0 for none
+     * @param maxAllocatedBytes Allocation limit per stylesheet, 0 for none
+     */
+    public TemplateGuard(long timeoutMillis, long maxAllocatedBytes) {
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.maxAllocatedBytes = maxAllocatedBytes;
+    }
+
+    /**
+     * Start guarding the compilation of a stylesheet on the calling thread
+     *
+     * @param interrupt Called from the watchdog thread once when a limit is exceeded
+     */
+    public synchronized void start(String template, Runnable interrupt) {
+        this.threadId = Thread.currentThread().getId();
+        this.startNanos = System.nanoTime();
+        this.startAllocatedBytes = getAllocatedBytes(this.threadId);
+        this.interrupt = interrupt;
+        this.reason = null;
+        this.check = WATCHDOG.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                check();
+            }
+        }, CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop guarding the current stylesheet, the interrupt is not called after this returns
+     *
+     * @return Bytes allocated while compiling the stylesheet, -1 if unknown
+     */
+    public synchronized long stop() {
+        this.interrupt = null;
+        if (this.check != null) {
+            this.check.cancel(false);
+            this.check = null;
+        }
+        final long allocatedBytes = getAllocatedBytes(this.threadId);
+        return allocatedBytes < 0 || this.startAllocatedBytes < 0 ? -1 : allocatedBytes - this.startAllocatedBytes;
+    }
+
+    /**
+     * @return Why the last stylesheet was interrupted, null if it was not
+     */
+    public synchronized String getReason() {
+        return this.reason;
+    }
+
+    private synchronized void check() {
+        if (this.interrupt == null) {
+            return;
+        }
+
+        final long elapsedNanos = System.nanoTime() - this.startNanos;
+        if (this.timeoutNanos > 0 && elapsedNanos > this.timeoutNanos) {
+            this.reason = "Compilation exceeded the time limit of " + TimeUnit.NANOSECONDS.toMillis(this.timeoutNanos) + "ms";
+        }
+        else if (this.maxAllocatedBytes > 0 && this.startAllocatedBytes >= 0) {
+            final long allocatedBytes = getAllocatedBytes(this.threadId) - this.startAllocatedBytes;
+            if (allocatedBytes > this.maxAllocatedBytes) {
+                this.reason = "Compilation exceeded the memory limit of " + (this.maxAllocatedBytes >> 20)
+                        + "MB after " + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + "ms";
+            }
+        }
+        if (this.reason == null) {
+            return;
+        }
+
+        final Runnable exceeded = this.interrupt;
+        this.interrupt = null;
+        this.check.cancel(false);
+        this.check = null;
+        exceeded.run();
+    }
+
+    /**
+     * @return Bytes allocated by the thread since it started, -1 if the JVM does not count them
+     */
+    private static long getAllocatedBytes(long threadId) {
+        final java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            final com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+            if (allocationBean.isThreadAllocatedMemorySupported() && allocationBean.isThreadAllocatedMemoryEnabled()) {
+                return allocationBean.getThreadAllocatedBytes(threadId);
+            }
+        }
+        return -1;
+    }
+}
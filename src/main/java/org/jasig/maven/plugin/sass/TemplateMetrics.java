@@ -0,0 +1,182 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timing and size information for the compilation of a single stylesheet, collected by {@link CompilerCallback}.
+ * <br/>
+ * Parse, import and Compass times are measured inside the Sass runtime and are cumulative over the
+ * template and everything it imports. Evaluation is the remainder of the render time, write is the time
+ * between the rendered CSS being available and the file being written.
+ */
+public class TemplateMetrics {
+    public static final String PARSE = "parse";
+    public static final String IMPORTS = "imports";
+    public static final String COMPASS = "compass";
+
+    private final String template;
+    private final String css;
+    private final long startNanos;
+    private long renderedNanos;
+    private long finishedNanos;
+    private long parseNanos;
+    private long importNanos;
+    private long compassNanos;
+    private int cacheHits;
+    private int cacheMisses;
+    private long inputBytes;
+    private long outputBytes;
+    private long allocatedBytes = -1;
+    private boolean failed;
+
+    TemplateMetrics(String template, String css, long startNanos) {
+        this.template = template;
+        this.css = css;
+        this.startNanos = startNanos;
+        this.inputBytes = new File(template).length();
+    }
+
+    synchronized void addPhase(String phase, long nanos) {
+        if (PARSE.equals(phase)) {
+            parseNanos += nanos;
+        }
+        else if (IMPORTS.equals(phase)) {
+            importNanos += nanos;
+        }
+        else if (COMPASS.equals(phase)) {
+            compassNanos += nanos;
+        }
+    }
+
+    synchronized void cacheAccess(boolean hit) {
+        if (hit) {
+            cacheHits++;
+        }
+        else {
+            cacheMisses++;
+        }
+    }
+
+    synchronized void rendered(long nanos) {
+        renderedNanos = nanos;
+    }
+
+    synchronized void written(long nanos) {
+        finishedNanos = nanos;
+        outputBytes = new File(css).length();
+    }
+
+    synchronized void allocated(long bytes) {
+        allocatedBytes = bytes;
+    }
+
+    synchronized void failed(long nanos) {
+        failed = true;
+        finishedNanos = nanos;
+    }
+
+    public String getTemplate() {
+        return template;
+    }
+
+    public String getCss() {
+        return css;
+    }
+
+    public synchronized boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * @return Milliseconds from the start of the compilation until the CSS was written or the error was reported
+     */
+    public synchronized long getTotalMillis() {
+        return millis(getEndNanos() - startNanos);
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when the compilation started
+     */
+    synchronized long getStartNanos() {
+        return startNanos;
+    }
+
+    /**
+     * @return {@link System#nanoTime()} when the CSS was written or the error was reported, the start if neither happened
+     */
+    synchronized long getEndNanos() {
+        return finishedNanos != 0 ? finishedNanos : renderedNanos != 0 ? renderedNanos : startNanos;
+    }
+
+    public synchronized long getParseMillis() {
+        return millis(parseNanos);
+    }
+
+    public synchronized long getImportMillis() {
+        return millis(importNanos);
+    }
+
+    public synchronized long getCompassMillis() {
+        return millis(compassNanos);
+    }
+
+    /**
+     * @return Render time not spent parsing, importing or in Compass functions
+     */
+    public synchronized long getEvaluateMillis() {
+        if (renderedNanos == 0) {
+            return 0;
+        }
+        return millis(Math.max(0, renderedNanos - startNanos - parseNanos - importNanos - compassNanos));
+    }
+
+    public synchronized long getWriteMillis() {
+        return renderedNanos != 0 && finishedNanos != 0 ? millis(finishedNanos - renderedNanos) : 0;
+    }
+
+    public synchronized int getCacheHits() {
+        return cacheHits;
+    }
+
+    public synchronized int getCacheMisses() {
+        return cacheMisses;
+    }
+
+    public synchronized long getInputBytes() {
+        return inputBytes;
+    }
+
+    public synchronized long getOutputBytes() {
+        return outputBytes;
+    }
+
+    /**
+     * @return Bytes allocated while compiling, -1 if not measured (see {@link TemplateGuard})
+     */
+    public synchronized long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
@@ -0,0 +1,192 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches directory trees for changes to SASS templates using a {@link WatchService}. Every directory
+ * below the registered roots is registered, directories created later are registered as they appear.
+ * Bursts of events are merged into a single {@link Changes} set: after the first event the watcher
+ * keeps collecting until no further event arrived for the debounce period.
+ */
+class TemplateWatcher implements Closeable {
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new HashMap<WatchKey, Path>();
+    private final long debounceMillis;
+
+    TemplateWatcher(long debounceMillis) throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.debounceMillis = debounceMillis;
+    }
+
+    /**
+     * Watch the directory and all directories below it
+     */
+    void register(Path root) throws IOException {
+        register(root, null);
+    }
+
+    /**
+     * Block until templates changed
+     */
+    Changes awaitChanges() throws InterruptedException {
+        final Changes changes = new Changes();
+
+        WatchKey key = watchService.take();
+        while (key != null) {
+            final Path directory = directories.get(key);
+            if (directory != null) {
+                for (final WatchEvent<?> event : key.pollEvents()) {
+                    handleEvent(directory, event, changes);
+                }
+            }
+            if (!key.reset()) {
+                // the directory is gone, files in it were not necessarily reported one by one
+                directories.remove(key);
+                changes.rescan = true;
+            }
+
+            key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+        }
+        return changes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    private void handleEvent(Path directory, WatchEvent<?> event, Changes changes) {
+        if (event.kind() == OVERFLOW) {
+            changes.rescan = true;
+            return;
+        }
+
+        final Path path = directory.resolve((Path) event.context());
+        if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+            try {
+                register(path, changes);
+            }
+            catch (final IOException e) {
+                changes.rescan = true;
+            }
+            return;
+        }
+
+        if (isTemplate(path)) {
+            changes.add(path, event.kind());
+        }
+    }
+
+    /**
+     * Register the directory tree, templates found in it are reported as created if changes is not null
+     */
+    private void register(Path root, final Changes changes) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (dir.getFileName() != null && dir.getFileName().toString().startsWith(".")) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                directories.put(dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (changes != null && isTemplate(file)) {
+                    changes.add(file, ENTRY_CREATE);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static boolean isTemplate(Path path) {
+        return ImportResolver.isTemplate(path.getFileName().toString());
+    }
+
+    /**
+     * Template changes collected from one burst of events. Several events for the same file are merged,
+     * e.g. a file that was created and modified is reported as created.
+     */
+    static final class Changes {
+        private final Map<Path, WatchEvent.Kind<?>> templates = new LinkedHashMap<Path, WatchEvent.Kind<?>>();
+        private boolean rescan;
+
+        private void add(Path template, WatchEvent.Kind<?> kind) {
+            final WatchEvent.Kind<?> previous = templates.get(template);
+            if (previous == ENTRY_CREATE && kind == ENTRY_DELETE) {
+                templates.remove(template);
+            }
+            else if (previous == ENTRY_CREATE) {
+                // still a new file
+            }
+            else if (previous == ENTRY_DELETE && kind == ENTRY_CREATE) {
+                templates.put(template, ENTRY_MODIFY);
+            }
+            else {
+                templates.put(template, kind);
+            }
+        }
+
+        /**
+         * @return The changed templates with the kind of change
+         */
+        Map<Path, WatchEvent.Kind<?>> getTemplates() {
+            return templates;
+        }
+
+        /**
+         * @return true if templates were created or deleted or if events were lost, the set of templates must be determined again
+         */
+        boolean isStructuralChange() {
+            if (rescan) {
+                return true;
+            }
+            for (final Entry<Path, WatchEvent.Kind<?>> template : templates.entrySet()) {
+                if (template.getValue() != ENTRY_MODIFY) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
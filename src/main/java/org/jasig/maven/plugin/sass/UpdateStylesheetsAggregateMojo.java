@@ -0,0 +1,217 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.maven.model.FileSet;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Compiles the SASS templates of all modules of the reactor in a single execution. The template
+ * locations are taken from the configuration of the plugin in each module (resources, or
+ * sassSourceDirectory/includes/excludes/relativeOutputDirectory/destination), the css files are
+ * written to the destination of the module they belong to. Everything else, e.g. sassOptions,
+ * useCompass, gems and the engine, comes from the configuration of this goal.
+ * <br/>
+ * All stylesheets are compiled in one pass distributed over aggregateThreads workers, with a
+ * shared content addressed cache (see cacheStore) so partials used by several modules are parsed
+ * once and only one runtime per worker is started. Modules should declare the plugin with its
+ * configuration but without binding update-stylesheets, otherwise they compile again (which the
+ * incremental build of each module turns into a check).
+ * <br/>
+ * The goal is not bound to a phase, as the clean of each module would delete what it wrote. Run it
+ * from the command line between the phases, e.g. <code>mvn clean sass:update-stylesheets-aggregate install</code>:
+ * Maven cleans all modules first, then compiles the stylesheets once and builds the modules afterwards.
+ *
+ * @goal update-stylesheets-aggregate
+ * @aggregator
+ */
+public class UpdateStylesheetsAggregateMojo extends UpdateStylesheetsMojo {
+    private static final String PLUGIN_KEY = "org.jasig.maven:sass-maven-plugin";
+    private static final String MODULE_GOAL = "update-stylesheets";
+
+    /**
+     * @parameter expression="${reactorProjects}"
+     * @readonly
+     * @required
+     */
+    protected List<MavenProject> reactorProjects;
+
+    /**
+     * Number of stylesheets compiled concurrently over all modules, 0 for one per available processor.
+     *
+     * @parameter expression="${sass.aggregateThreads}" default-value="0"
+     */
+    protected int aggregateThreads;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        final List<Resource> moduleResources = new ArrayList<Resource>();
+        for (final MavenProject project : reactorProjects) {
+            final Xpp3Dom configuration = getModuleConfiguration(project);
+            if (configuration == null) {
+                continue;
+            }
+            final List<Resource> resources = getModuleResources(project, configuration);
+            getLog().info("Aggregating " + resources.size() + " SASS resource(s) of " + project.getArtifactId());
+            moduleResources.addAll(resources);
+        }
+
+        if (moduleResources.isEmpty()) {
+            getLog().info("No module of the reactor configures " + PLUGIN_KEY);
+            return;
+        }
+
+        this.resources = moduleResources;
+        this.threads = aggregateThreads;
+        if (this.cacheStore == null) {
+            // share parse trees of common partials between all modules
+            this.cacheStore = new File(this.buildDirectory, "sass_shared_cache");
+        }
+        super.execute();
+    }
+
+    /**
+     * @return The configuration of the plugin in the module merged with that of its update-stylesheets
+     * executions, null if the module does not use the plugin
+     */
+    private Xpp3Dom getModuleConfiguration(MavenProject project) {
+        for (final Plugin plugin : project.getBuildPlugins()) {
+            if (!PLUGIN_KEY.equals(plugin.getKey())) {
+                continue;
+            }
+
+            Xpp3Dom configuration = (Xpp3Dom) plugin.getConfiguration();
+            for (final PluginExecution execution : plugin.getExecutions()) {
+                if (execution.getGoals().contains(MODULE_GOAL) && execution.getConfiguration() != null) {
+                    configuration = Xpp3Dom.mergeXpp3Dom((Xpp3Dom) execution.getConfiguration(), configuration);
+                }
+            }
+            return configuration != null ? configuration : new Xpp3Dom("configuration");
+        }
+        return null;
+    }
+
+    private List<Resource> getModuleResources(MavenProject project, Xpp3Dom configuration) throws MojoExecutionException {
+        for (final String ignored : ImmutableList.of("sassOptions", "useCompass", "gems", "gemPaths", "engine")) {
+            if (configuration.getChild(ignored) != null) {
+                getLog().warn(ignored + " of " + project.getArtifactId() + " is ignored, the configuration of the aggregate applies");
+            }
+        }
+
+        final List<Resource> resources = new ArrayList<Resource>();
+        final Xpp3Dom resourcesConfiguration = configuration.getChild("resources");
+        if (resourcesConfiguration != null) {
+            for (final Xpp3Dom resourceConfiguration : resourcesConfiguration.getChildren("resource")) {
+                final Xpp3Dom source = resourceConfiguration.getChild("source");
+                if (source == null || getValue(source, "directory") == null) {
+                    throw new MojoExecutionException("A resource of " + project.getArtifactId() + " has no source directory");
+                }
+                final String destination = getValue(resourceConfiguration, "destination");
+                if (destination == null) {
+                    throw new MojoExecutionException("A resource of " + project.getArtifactId() + " has no destination");
+                }
+
+                final Resource resource = new Resource();
+                resource.source = new FileSet();
+                resource.source.setDirectory(resolve(project, getValue(source, "directory")).getPath());
+                resource.source.setIncludes(getValues(source.getChild("includes")));
+                resource.source.setExcludes(getValues(source.getChild("excludes")));
+                resource.relativeOutputDirectory = getValue(resourceConfiguration, "relativeOutputDirectory");
+                resource.destination = resolve(project, destination);
+                resource.outputProfiles = getOutputProfiles(resourceConfiguration);
+                resources.add(resource);
+            }
+            return resources;
+        }
+
+        // the defaults of the parameters of update-stylesheets
+        final String sassSourceDirectory = getValue(configuration, "sassSourceDirectory");
+        final String relativeOutputDirectory = getValue(configuration, "relativeOutputDirectory");
+        final String destination = getValue(configuration, "destination");
+        final Xpp3Dom includes = configuration.getChild("includes");
+
+        final Resource resource = new Resource();
+        resource.source = new FileSet();
+        resource.source.setDirectory((sassSourceDirectory != null
+                ? resolve(project, sassSourceDirectory)
+                : new File(project.getBasedir(), "src/main/webapp")).getPath());
+        resource.source.setIncludes(includes != null ? getValues(includes) : Arrays.asList("**/scss"));
+        resource.source.setExcludes(getValues(configuration.getChild("excludes")));
+        resource.relativeOutputDirectory = relativeOutputDirectory != null ? relativeOutputDirectory : "..";
+        resource.destination = destination != null
+                ? resolve(project, destination)
+                : new File(project.getBuild().getDirectory(), project.getBuild().getFinalName());
+        resource.outputProfiles = getOutputProfiles(configuration);
+        resources.add(resource);
+        return resources;
+    }
+
+    private static List<OutputProfile> getOutputProfiles(Xpp3Dom parent) {
+        final List<OutputProfile> outputProfiles = new ArrayList<OutputProfile>();
+        final Xpp3Dom outputProfilesConfiguration = parent.getChild("outputProfiles");
+        if (outputProfilesConfiguration != null) {
+            for (final Xpp3Dom profile : outputProfilesConfiguration.getChildren("outputProfile")) {
+                outputProfiles.add(new OutputProfile(getValue(profile, "style"), getValue(profile, "suffix"),
+                        Boolean.parseBoolean(getValue(profile, "debugInfo")),
+                        Boolean.parseBoolean(getValue(profile, "lineComments"))));
+            }
+        }
+        return outputProfiles;
+    }
+
+    private static String getValue(Xpp3Dom parent, String name) {
+        final Xpp3Dom child = parent.getChild(name);
+        if (child == null || child.getValue() == null || child.getValue().trim().isEmpty()) {
+            return null;
+        }
+        return child.getValue().trim();
+    }
+
+    private static List<String> getValues(Xpp3Dom list) {
+        final List<String> values = new ArrayList<String>();
+        if (list != null) {
+            for (final Xpp3Dom child : list.getChildren()) {
+                if (child.getValue() != null) {
+                    values.add(child.getValue().trim());
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Paths in the configuration of a module are relative to the module
+     */
+    private static File resolve(MavenProject project, String path) {
+        final File file = new File(path);
+        return file.isAbsolute() ? file : new File(project.getBasedir(), path);
+    }
+}
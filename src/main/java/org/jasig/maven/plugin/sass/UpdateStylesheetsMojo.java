@@ -18,28 +18,402 @@
  */
 package org.jasig.maven.plugin.sass;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.commons.io.FileUtils;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
 /**
- * Mojo that compiles SASS Templates into CSS files. Uses JRuby to execute a generated script that calls the SASS GEM
+ * Mojo that compiles SASS Templates into CSS files. By default uses JRuby to execute a generated script that calls the SASS GEM,
+ * see {@link CompilerEngine}
  *
  * @goal update-stylesheets
  * @phase process-sources
  */
 public class UpdateStylesheetsMojo extends AbstractSassMojo {
+    /**
+     * sassOptions that do not influence the compiled css, load_paths only matters through the files it
+     * resolves, which are part of the key
+     */
+    private static final Set<String> UNCACHED_OPTIONS = ImmutableSet.of("always_update", "cache", "cache_location",
+            "load_paths");
+
+    /**
+     * sassOptions that write the paths of the template and its imports into the css
+     */
+    private static final Set<String> PATH_OPTIONS = ImmutableSet.of("line_comments", "line_numbers", "debug_info",
+            "trace_selectors");
+
+    /**
+     * Build cache for compiled css shared by build agents: a directory, e.g. on a network file system,
+     * or an http(s) URL that answers GET and PUT of {url}/{key}.css. Stale stylesheets are looked up
+     * by a key over the content of the template and its imports, the sassOptions, output profiles,
+     * Compass and gem versions. Stylesheets found in the cache are not compiled, if all are found the
+     * Sass runtime is not started at all. The cache is not used if imports can not be tracked, see
+     * incremental. Stylesheets whose css contains the paths of their templates (line_comments,
+     * debug_info or an output profile with lineComments or debugInfo) are only shared between builds
+     * in the same directory.
+     *
+     * @parameter expression="${sass.remoteCache}"
+     */
+    protected String remoteCache;
+
+    /**
+     * Store compiled css in the remoteCache. Disable on agents that should only read from the cache,
+     * e.g. developer machines.
+     *
+     * @parameter expression="${sass.remoteCachePush}" default-value="true"
+     */
+    protected boolean remoteCachePush = true;
+
+    /**
+     * @parameter expression="${plugin.version}"
+     * @readonly
+     */
+    protected String pluginVersion;
+
+    private String artifactCacheContext;
+
 
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
         getLog().info("Compiling SASS Templates");
 
-        // build sass script
-        final StringBuilder sassBuilder = new StringBuilder();
-        buildBasicSASSScript(sassBuilder);
-        sassBuilder.append("Sass::Plugin.update_stylesheets");
-        final String sassScript = sassBuilder.toString();
+        final List<Entry<String, String>> templateLocations = getTemplateLocations();
+        final List<Entry<String, String>> stylesheets = getStylesheets(templateLocations);
+
+        // find the stylesheets that need to be compiled
+        BuildManifest manifest = null;
+        List<Entry<String, String>> staleStylesheets = stylesheets;
+        if (isIncremental()) {
+            final long start = System.currentTimeMillis();
+            manifest = loadBuildManifest(templateLocations);
+            try {
+                staleStylesheets = manifest.getStaleStylesheets(stylesheets, createImportResolver(templateLocations));
+            }
+            catch (final IOException e) {
+                throw new MojoExecutionException("Failed to check SASS templates for changes", e);
+            }
+
+            if (staleStylesheets.isEmpty()) {
+                saveBuildManifest(manifest);
+                getLog().info("All " + stylesheets.size() + " stylesheets are up to date ("
+                        + (System.currentTimeMillis() - start) + "ms)");
+                return;
+            }
+            getLog().info(staleStylesheets.size() + " of " + stylesheets.size() + " stylesheets changed");
+            staleStylesheets = manifest.prioritize(staleStylesheets);
+        }
+
+        // fetch what other builds already compiled
+        final ArtifactCache artifactCache = createArtifactCache();
+        final Map<Entry<String, String>, String> cacheKeys = new HashMap<Entry<String, String>, String>();
+        if (artifactCache != null) {
+            final long start = System.currentTimeMillis();
+            final BuildManifest hashes = manifest != null ? manifest : loadBuildManifest(templateLocations);
+            final ImportResolver importResolver = createImportResolver(templateLocations);
+            try {
+                for (final Entry<String, String> stylesheet : staleStylesheets) {
+                    cacheKeys.put(stylesheet, getArtifactCacheKey(stylesheet, templateLocations, hashes, importResolver));
+                }
+            }
+            catch (final IOException e) {
+                throw new MojoExecutionException("Failed to hash SASS templates for the build cache", e);
+            }
+
+            final List<Entry<String, String>> fetched = fetchStylesheets(artifactCache, staleStylesheets, cacheKeys);
+            getLog().info(fetched.size() + " of " + staleStylesheets.size() + " stylesheets fetched from build cache "
+                    + artifactCache + " (" + (System.currentTimeMillis() - start) + "ms)");
+            if (!fetched.isEmpty()) {
+                if (manifest != null) {
+                    try {
+                        manifest.stylesheetsCompiled(fetched, Collections.<String>emptySet(),
+                                Collections.<String>emptySet());
+                    }
+                    catch (final IOException e) {
+                        throw new MojoExecutionException("Failed to record fetched SASS stylesheets", e);
+                    }
+                }
+                staleStylesheets = new ArrayList<Entry<String, String>>(staleStylesheets);
+                staleStylesheets.removeAll(fetched);
+            }
+
+            if (staleStylesheets.isEmpty()) {
+                if (manifest != null) {
+                    saveBuildManifest(manifest);
+                }
+                return;
+            }
+        }
+
+        final CompilerCallback compilerCallback = compileStylesheets(staleStylesheets, templateLocations);
+        reportMetrics(compilerCallback);
+
+        if (artifactCache != null && remoteCachePush) {
+            storeStylesheets(artifactCache, staleStylesheets, cacheKeys, compilerCallback);
+        }
+
+        if (manifest != null) {
+            try {
+                manifest.stylesheetsCompiled(staleStylesheets, compilerCallback.getFailedTemplates(),
+                        compilerCallback.getSkippedStylesheets());
+            }
+            catch (final IOException e) {
+                throw new MojoExecutionException("Failed to record compiled SASS templates", e);
+            }
+            saveBuildManifest(manifest);
+        }
+
+        checkForErrors(compilerCallback);
+    }
+
+    /**
+     * @return The configured build cache, null if there is none
+     */
+    protected ArtifactCache createArtifactCache() throws MojoExecutionException {
+        if (remoteCache == null || remoteCache.trim().isEmpty()) {
+            return null;
+        }
+        final String location = remoteCache.trim();
+        if (getImportLoadPaths() == null) {
+            getLog().warn("Not using build cache " + location + ", SASS imports can not be tracked, "
+                    + getUntrackedImportsReason());
+            return null;
+        }
+        if (location.startsWith("http://") || location.startsWith("https://")) {
+            try {
+                return new HttpArtifactCache(location);
+            }
+            catch (final IOException e) {
+                throw new MojoExecutionException("Invalid remoteCache URL " + location, e);
+            }
+        }
+        return new DirectoryArtifactCache(new File(location));
+    }
+
+    /**
+     * Write the stylesheets and their output profiles found in the build cache. A stylesheet only counts
+     * as fetched if all its outputs are found. The cache is not used further after the first error.
+     *
+     * @return The stylesheets that were fetched
+     */
+    private List<Entry<String, String>> fetchStylesheets(ArtifactCache artifactCache,
+            List<Entry<String, String>> stylesheets, Map<Entry<String, String>, String> cacheKeys) {
+
+        final List<Entry<String, String>> fetched = new ArrayList<Entry<String, String>>();
+        try {
+            for (final Entry<String, String> stylesheet : stylesheets) {
+                final Map<String, String> cachedOutputs = getCachedOutputs(stylesheet, cacheKeys.get(stylesheet));
+                final Map<String, byte[]> outputs = new HashMap<String, byte[]>();
+                for (final Entry<String, String> output : cachedOutputs.entrySet()) {
+                    final byte[] content = artifactCache.get(output.getValue());
+                    if (content == null) {
+                        break;
+                    }
+                    outputs.put(output.getKey(), content);
+                }
+                if (outputs.size() < cachedOutputs.size()) {
+                    continue;
+                }
+
+                for (final Entry<String, byte[]> output : outputs.entrySet()) {
+                    StylesheetWriter.write(output.getKey(), output.getValue());
+                }
+                getLog().debug("Fetched " + stylesheet.getValue() + " from build cache");
+                fetched.add(stylesheet);
+            }
+        }
+        catch (final IOException e) {
+            getLog().warn("Failed to read from build cache " + artifactCache + ", compiling the remaining stylesheets", e);
+        }
+        return fetched;
+    }
+
+    /**
+     * Store the outputs of the stylesheets that compiled successfully in the build cache. The cache is
+     * not used further after the first error.
+     */
+    private void storeStylesheets(ArtifactCache artifactCache, List<Entry<String, String>> stylesheets,
+            Map<Entry<String, String>, String> cacheKeys, CompilerCallback compilerCallback) {
+
+        final Set<String> failedTemplates = compilerCallback.getFailedTemplates();
+        final Set<String> skippedStylesheets = compilerCallback.getSkippedStylesheets();
+        int stored = 0;
+        try {
+            for (final Entry<String, String> stylesheet : stylesheets) {
+                if (failedTemplates.contains(stylesheet.getKey()) || skippedStylesheets.contains(stylesheet.getValue())) {
+                    continue;
+                }
+                for (final Entry<String, String> output : getCachedOutputs(stylesheet, cacheKeys.get(stylesheet)).entrySet()) {
+                    final File file = new File(output.getKey());
+                    if (file.isFile()) {
+                        artifactCache.put(output.getValue(), FileUtils.readFileToByteArray(file));
+                    }
+                }
+                stored++;
+            }
+        }
+        catch (final IOException e) {
+            getLog().warn("Failed to write to build cache " + artifactCache, e);
+        }
+        getLog().debug(stored + " stylesheets stored in build cache " + artifactCache);
+    }
+
+    /**
+     * @return css file to cache key of the stylesheet and of its output profiles
+     */
+    private Map<String, String> getCachedOutputs(Entry<String, String> stylesheet, String cacheKey) {
+        final Map<String, String> outputs = new TreeMap<String, String>();
+        outputs.put(stylesheet.getValue(), cacheKey);
+        for (final OutputProfile profile : getOutputProfiles(stylesheet.getValue())) {
+            outputs.put(profile.getOutputFile(stylesheet.getValue()),
+                    Hashing.sha1().hashString(cacheKey + "\n" + profile, Charsets.UTF_8).toString());
+        }
+        return outputs;
+    }
+
+    /**
+     * @return The output profiles of the css location the stylesheet is written to
+     */
+    private List<OutputProfile> getOutputProfiles(String css) {
+        final Entry<String, List<OutputProfile>> location = findLocation(getOutputProfiles(), css);
+        return location != null ? location.getValue() : Collections.<OutputProfile>emptyList();
+    }
+
+    /**
+     * Key of a stylesheet in the build cache. Paths are relative to the template and css locations or
+     * to the load paths, so builds in different checkouts share entries, unless the css contains the
+     * paths of the inputs.
+     */
+    String getArtifactCacheKey(Entry<String, String> stylesheet, List<Entry<String, String>> templateLocations,
+            BuildManifest hashes, ImportResolver importResolver) throws IOException {
+
+        final Hasher hasher = Hashing.sha1().newHasher();
+        hasher.putString(getArtifactCacheContext(), Charsets.UTF_8);
+
+        final Map<String, String> locations = new HashMap<String, String>();
+        for (final Entry<String, String> location : templateLocations) {
+            locations.put(location.getKey(), location.getValue());
+        }
+        final Entry<String, String> templateLocation = findLocation(locations, stylesheet.getKey());
+        hasher.putString(relativize(templateLocation != null ? templateLocation.getKey() : null, stylesheet.getKey()) + "\n",
+                Charsets.UTF_8);
+        hasher.putString(relativize(templateLocation != null ? templateLocation.getValue() : null, stylesheet.getValue()) + "\n",
+                Charsets.UTF_8);
+
+        final Map<String, Integer> loadPaths = new HashMap<String, Integer>();
+        for (final File loadPath : getImportLoadPaths()) {
+            final String path = ImportResolver.toPath(loadPath);
+            if (!loadPaths.containsKey(path)) {
+                loadPaths.put(path, loadPaths.size());
+            }
+        }
+
+        final boolean absolute = isWritingPaths(stylesheet.getValue());
+        for (final Entry<String, String> input : hashes.getInputContentHashes(stylesheet.getKey(), importResolver).entrySet()) {
+            final Entry<String, String> location = findLocation(locations, input.getKey());
+            final Entry<String, Integer> loadPath = location == null ? findLocation(loadPaths, input.getKey()) : null;
+            final String path;
+            if (absolute) {
+                path = input.getKey();
+            }
+            else if (loadPath != null) {
+                path = "load_path" + loadPath.getValue() + ":" + relativize(loadPath.getKey(), input.getKey());
+            }
+            else {
+                path = relativize(location != null ? location.getKey() : null, input.getKey());
+            }
+            hasher.putString(path + "=" + input.getValue() + "\n", Charsets.UTF_8);
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * @return True if the css of the stylesheet or one of its output profiles contains the paths of the
+     * template and its imports, see PATH_OPTIONS
+     */
+    private boolean isWritingPaths(String css) {
+        final SassOptions options = getSassOptions();
+        for (final String name : PATH_OPTIONS) {
+            final Object value = options.getValues().get(name);
+            final boolean disabled = options.getValues().containsKey(name) && (value == null || Boolean.FALSE.equals(value));
+            if (options.contains(name) && !disabled) {
+                return true;
+            }
+        }
+        for (final OutputProfile profile : getOutputProfiles(css)) {
+            if (profile.isDebugInfo() || profile.isLineComments()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Everything besides the templates that influences the compiled css and does not depend on the
+     * location of the checkout
+     */
+    private String getArtifactCacheContext() {
+        if (artifactCacheContext != null) {
+            return artifactCacheContext;
+        }
+
+        final StringBuilder context = new StringBuilder();
+        for (final Entry<String, String> option : new TreeMap<String, String>(this.sassOptions).entrySet()) {
+            if (!UNCACHED_OPTIONS.contains(option.getKey())) {
+                context.append(option.getKey()).append('=').append(option.getValue()).append('\n');
+            }
+        }
+        for (final Entry<String, List<OutputProfile>> location : new TreeMap<String, List<OutputProfile>>(getOutputProfiles()).entrySet()) {
+            context.append(location.getValue()).append('\n');
+        }
+        // the daemon runs the same Ruby Sass as the jruby engine
+        context.append(CompilerEngine.JAVA.equals(this.engine) ? CompilerEngine.JAVA : CompilerEngine.JRUBY).append('\n');
+        context.append("compass=").append(this.useCompass).append('\n');
+        context.append("gems=").append(Arrays.toString(this.gems)).append('\n');
+        // rubygems also loads gems from the GEM_PATH of the environment
+        final List<String> allGemPaths = new ArrayList<String>(Arrays.asList(this.gemPaths));
+        final String envGemPath = System.getenv("GEM_PATH");
+        if (envGemPath != null) {
+            allGemPaths.addAll(Arrays.asList(envGemPath.split(File.pathSeparator)));
+        }
+        for (final String gemPath : allGemPaths) {
+            final String[] installed = new File(gemPath, "gems").list();
+            if (installed != null) {
+                Arrays.sort(installed);
+                context.append("installed=").append(Arrays.toString(installed)).append('\n');
+            }
+        }
+        // the plugin determines JRuby and the bundled Sass and Compass versions, SNAPSHOT versions are
+        // told apart by the size and modification time of the plugin jar or classes
+        final URL pluginLocation = UpdateStylesheetsMojo.class.getProtectionDomain().getCodeSource().getLocation();
+        context.append("plugin=").append(this.pluginVersion).append(' ')
+                .append(getModificationStamp(FileUtils.toFile(pluginLocation))).append('\n');
+        // Sass writes windows newlines on windows unless unix_newlines is set
+        context.append("newline=").append(System.getProperty("line.separator").length()).append('\n');
+
+        artifactCacheContext = context.toString();
+        return artifactCacheContext;
+    }
 
-        // ...and execute
-        executeSassScript(sassScript);
+    private static String relativize(String location, String path) {
+        return location != null ? path.substring(location.length() + 1) : new File(path).getName();
     }
 }
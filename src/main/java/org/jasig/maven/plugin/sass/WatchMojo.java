@@ -18,25 +18,262 @@
  */
 package org.jasig.maven.plugin.sass;
 
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.apache.commons.io.IOUtils;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+import org.jruby.embed.EvalFailedException;
+import org.jruby.embed.InvokeFailedException;
+
+import com.google.common.collect.ImmutableList;
 
 /**
  * @goal watch
  */
 public class WatchMojo extends AbstractSassMojo {
 
+    /**
+     * Watch the template locations with the file system notifications of the JVM and recompile changed
+     * stylesheets with a compiler engine that stays loaded. If false Sass::Plugin.watch is used instead, which
+     * polls or relies on the rb-inotify/rb-fsevent gems.
+     *
+     * @parameter expression="${sass.nativeWatcher}" default-value="true"
+     */
+    protected boolean nativeWatcher = true;
+
+    /**
+     * Time in milliseconds without further file system events after which a burst of changes is compiled.
+     *
+     * @parameter expression="${sass.watchDebounce}" default-value="50"
+     */
+    protected long watchDebounce = 50;
+
+    /**
+     * Port of a live reload server that pushes every written stylesheet to the connected browsers, 0 to
+     * not start one. Pages include http://localhost:{port}/livereload.js, which reloads the changed
+     * stylesheets of the page without a full refresh.
+     *
+     * @parameter expression="${sass.liveReloadPort}" default-value="0"
+     */
+    protected int liveReloadPort;
+
+    /**
+     * Address the live reload server binds to, e.g. 0.0.0.0 to reach it from other devices.
+     *
+     * @parameter expression="${sass.liveReloadHost}" default-value="localhost"
+     */
+    protected String liveReloadHost = "localhost";
+
+    private CompilerEngine compilerEngine;
+    private LiveReloadServer liveReloadServer;
+
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
         getLog().info("Watching SASS Templates");
 
-        // build sass script
-        final StringBuilder sassBuilder = new StringBuilder();
-        buildBasicSASSScript(sassBuilder);
-        sassBuilder.append("Sass::Plugin.watch");
-        final String sassScript = sassBuilder.toString();
+        final List<Entry<String, String>> templateLocations = getTemplateLocations();
+        startLiveReloadServer(templateLocations);
+        try {
+            if (nativeWatcher) {
+                watch(templateLocations);
+            }
+            else {
+                watchWithSass(templateLocations);
+            }
+        }
+        finally {
+            IOUtils.closeQuietly(liveReloadServer);
+        }
+    }
+
+    /**
+     * Watch the template locations with a {@link TemplateWatcher}
+     */
+    private void watch(List<Entry<String, String>> templateLocations) throws MojoExecutionException, MojoFailureException {
+        final ImportResolver importResolver = createImportResolver(templateLocations);
+        final BuildManifest manifest = loadBuildManifest(templateLocations);
+
+        compilerEngine = createCompilerEngine();
+        try (final TemplateWatcher watcher = new TemplateWatcher(watchDebounce)) {
+            for (final Entry<String, String> location : templateLocations) {
+                watcher.register(Paths.get(location.getKey()));
+            }
+            final List<File> importLoadPaths = getImportLoadPaths();
+            if (importLoadPaths == null) {
+                getLog().warn("Changes to SASS imports outside the template locations are not detected, "
+                        + getUntrackedImportsReason());
+            }
+            else {
+                for (final File loadPath : importLoadPaths) {
+                    if (loadPath.isDirectory()) {
+                        watcher.register(loadPath.toPath());
+                    }
+                }
+            }
+
+            List<Entry<String, String>> stylesheets = getStylesheets(templateLocations);
+            final CompilerCallback initialCallback = createWatchCallback();
+            updateStylesheets(templateLocations, stylesheets, null, manifest, importResolver, initialCallback);
+
+            while (true) {
+                final TemplateWatcher.Changes changes = watcher.awaitChanges();
+
+                final CompilerCallback compilerCallback = createWatchCallback();
+                final List<String> changedTemplates = new ArrayList<String>();
+                for (final Entry<Path, WatchEvent.Kind<?>> change : changes.getTemplates().entrySet()) {
+                    final String template = ImportResolver.toPath(change.getKey().toFile());
+                    changedTemplates.add(template);
+                    if (change.getValue() == ENTRY_CREATE) {
+                        compilerCallback.templateCreated(template);
+                    }
+                    else if (change.getValue() == ENTRY_DELETE) {
+                        compilerCallback.templateDeleted(template);
+                        deleteStylesheet(template, stylesheets);
+                    }
+                    else {
+                        compilerCallback.templateModified(template);
+                    }
+                }
+
+                // modified templates only affect the stylesheets depending on them, anything else needs a full check
+                if (changes.isStructuralChange()) {
+                    stylesheets = getStylesheets(templateLocations);
+                    updateStylesheets(templateLocations, stylesheets, null, manifest, importResolver, compilerCallback);
+                }
+                else {
+                    updateStylesheets(templateLocations, stylesheets, changedTemplates, manifest, importResolver,
+                            compilerCallback);
+                }
+            }
+        }
+        catch (final IOException e) {
+            throw new MojoExecutionException("Failed to watch SASS templates", e);
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            compilerEngine.close();
+        }
+    }
+
+    /**
+     * Start the live reload server if a port is configured
+     */
+    private void startLiveReloadServer(List<Entry<String, String>> templateLocations) throws MojoExecutionException {
+        if (liveReloadPort <= 0) {
+            return;
+        }
+        final List<String> cssLocations = new ArrayList<String>(templateLocations.size());
+        for (final Entry<String, String> location : templateLocations) {
+            cssLocations.add(location.getValue());
+        }
+        try {
+            liveReloadServer = new LiveReloadServer(liveReloadHost, liveReloadPort, cssLocations, getLog());
+        }
+        catch (final IOException e) {
+            throw new MojoExecutionException("Failed to start live reload server on " + liveReloadHost + ":"
+                    + liveReloadPort, e);
+        }
+        getLog().info("Live reload: include http://" + liveReloadHost + ":" + liveReloadServer.getPort()
+                + "/livereload.js in the pages");
+    }
+
+    /**
+     * @return Callback for one compile of the watch, pushing written stylesheets to the live reload server
+     */
+    private CompilerCallback createWatchCallback() {
+        final CompilerCallback compilerCallback = createCompilerCallback();
+        compilerCallback.setLiveReloadServer(liveReloadServer);
+        return compilerCallback;
+    }
+
+    /**
+     * Let Sass::Plugin.watch compile and watch all template locations
+     */
+    private void watchWithSass(List<Entry<String, String>> templateLocations) throws MojoExecutionException, MojoFailureException {
+        final CompilerCallback compilerCallback = createWatchCallback();
+        final SassRuntime sassRuntime = acquireRuntime(buildBootstrapScript());
+        boolean reusable = false;
+        try {
+            // templates created while watching may need Compass, it is loaded up front
+            if (isLazyCompass() && !sassRuntime.isCompassLoaded()) {
+                sassRuntime.activateCompass(getCompassScript());
+            }
+            configureRuntime(sassRuntime, templateLocations, ImmutableList.<String>of());
+            sassRuntime.watch(compilerCallback);
+            reusable = true;
+        }
+        catch (final EvalFailedException | InvokeFailedException e) {
+            throw new MojoExecutionException("Failed to watch SASS templates", e);
+        }
+        finally {
+            releaseRuntime(sassRuntime, reusable);
+        }
+        checkForErrors(compilerCallback);
+    }
+
+    /**
+     * Compile the stylesheets that are out of date according to the manifest. Errors are reported but do
+     * not end the watch, the engine recovers from failures itself (the JRuby engine replaces a failed runtime).
+     *
+     * @param changedTemplates Templates reported as modified, only their dependents are checked. If null all stylesheets are checked.
+     */
+    private void updateStylesheets(List<Entry<String, String>> templateLocations,
+            List<Entry<String, String>> stylesheets, Collection<String> changedTemplates, BuildManifest manifest,
+            ImportResolver importResolver, CompilerCallback compilerCallback) throws IOException, MojoExecutionException {
+        final Log log = getLog();
+        final long start = System.currentTimeMillis();
+
+        final List<Entry<String, String>> staleStylesheets = manifest.prioritize(
+                manifest.getStaleStylesheets(stylesheets, changedTemplates, importResolver));
+        if (staleStylesheets.isEmpty()) {
+            compilerCallback.logSummary();
+            return;
+        }
+
+        try {
+            compilerEngine.compile(staleStylesheets, templateLocations, compilerCallback);
+        }
+        catch (final MojoExecutionException e) {
+            manifest.stylesheetsFailed(staleStylesheets);
+            saveBuildManifest(manifest);
+            compilerCallback.logSummary();
+            log.error(e.getMessage(), e.getCause());
+            return;
+        }
+
+        manifest.stylesheetsCompiled(staleStylesheets, compilerCallback.getFailedTemplates(),
+                compilerCallback.getSkippedStylesheets());
+        saveBuildManifest(manifest);
+        reportMetrics(compilerCallback);
+        log.info("Compiled " + staleStylesheets.size() + " stylesheet(s) in " + (System.currentTimeMillis() - start) + "ms");
+    }
 
-        // ...and execute
-        executeSassScript(sassScript);
+    /**
+     * Remove the css files compiled from a deleted template, as Sass::Plugin.watch does
+     */
+    private void deleteStylesheet(String template, List<Entry<String, String>> stylesheets) {
+        for (final Entry<String, String> stylesheet : stylesheets) {
+            if (stylesheet.getKey().equals(template)) {
+                final File css = new File(stylesheet.getValue());
+                if (css.isFile() && !css.delete()) {
+                    getLog().warn("Failed to delete " + css);
+                }
+            }
+        }
     }
 }
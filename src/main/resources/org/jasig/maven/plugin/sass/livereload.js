@@ -0,0 +1,34 @@
+/*
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+// Served by org.jasig.maven.plugin.sass.LiveReloadServer. Reloads the stylesheets of the page
+// when the watch goal writes them, {events} is replaced with the URL of the event stream.
+(function () {
+  var source = new EventSource('{events}');
+  source.addEventListener('css', function (event) {
+    var links = document.getElementsByTagName('link');
+    for (var i = 0; i < links.length; i++) {
+      var link = links[i];
+      var href = link.href.split('?')[0];
+      if (link.rel === 'stylesheet' && href.slice(-event.data.length - 1) === '/' + event.data) {
+        link.href = href + '?livereload=' + new Date().getTime();
+      }
+    }
+  });
+})();
@@ -0,0 +1,309 @@
+#
+# Licensed to Jasig under one or more contributor license
+# agreements. See the NOTICE file distributed with this work
+# for additional information regarding copyright ownership.
+# Jasig licenses this file to you under the Apache License,
+# Version 2.0 (the "License"); you may not use this file
+# except in compliance with the License. You may obtain a
+# copy of the License at:
+#
+# http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing,
+# software distributed under the License is distributed on
+# an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+# KIND, either express or implied. See the License for the
+# specific language governing permissions and limitations
+# under the License.
+#
+
+# Entry points called by org.jasig.maven.plugin.sass.SassRuntime. Loaded once into every
+# runtime after the bootstrap script, all per-execution values are passed in as Java objects
+# so no Ruby code has to be generated or parsed for an execution.
+module SassMavenPlugin
+  @depth = Hash.new(0)
+  @written = {}
+
+  # Reset Sass::Plugin and configure it for an execution
+  #
+  # options       - option name => String, Boolean, Long, Double or nil
+  # symbols       - option name => name of the Symbol to use as value
+  # expressions   - option name => Ruby expression evaluating to the value
+  # locations     - [template location, css location] pairs
+  # load_paths    - additional directories to resolve imports against
+  # cache_store   - org.jasig.maven.plugin.sass.SassCacheStore replacing cache_location, or nil
+  # profiles      - css location => org.jasig.maven.plugin.sass.OutputProfile list
+  def self.configure(options, symbols, expressions, locations, load_paths, cache_store, profiles, debug)
+    # the runtime may have been used by an earlier execution
+    Sass::Plugin.instance_variable_set('@compiler', nil)
+
+    values = {}
+    options.each { |name, value| values[name.to_sym] = value }
+    symbols.each { |name, symbol| values[name.to_sym] = symbol.to_sym }
+    expressions.each { |name, expression| values[name.to_sym] = eval(expression, TOPLEVEL_BINDING) }
+    values[:load_paths] = Compass.configuration.sass_load_paths if defined?(Compass)
+    if cache_store
+      values[:cache_store] = Sass::CacheStores::Chain.new(Sass::CacheStores::Memory.new, SharedCacheStore.new(cache_store))
+    else
+      Sass::Plugin.options.delete(:cache_store)
+    end
+
+    # the first location replaces the default "./public/stylesheets/sass" => "./public/stylesheets"
+    # the others are added after the options are merged
+    locations = locations.map { |location| [location[0].to_s, location[1].to_s] }
+    if locations.empty?
+      values[:template_location] = []
+    else
+      values[:template_location], values[:css_location] = locations.first
+    end
+
+    Sass::Plugin.options.merge!(values)
+    locations.drop(1).each { |template, css| Sass::Plugin.add_template_location(template, css) }
+
+    # template locations compiled by other threads are only needed to resolve imports
+    unless load_paths.empty?
+      Sass::Plugin.options[:load_paths] = (Sass::Plugin.options[:load_paths] || []) + load_paths.map { |path| path.to_s }
+    end
+
+    @profiles = {}
+    profiles.each { |location, list| @profiles[location.to_s] = list.to_a }
+
+    Sass::Plugin.on_compilation_error {|error, template, css| $compiler_callback.compilationError(error.message, template, css) }
+    Sass::Plugin.on_updating_stylesheet {|template, css| $compiler_callback.updatingStylesheet(template, css) }
+    Sass::Plugin.on_updated_stylesheet {|template, css| $compiler_callback.updatedStylesheeet(template, css, SassMavenPlugin.changed?(css)) }
+    Sass::Plugin.on_template_modified {|template| $compiler_callback.templateModified(template) }
+    Sass::Plugin.on_template_created {|template| $compiler_callback.templateCreated(template) }
+    Sass::Plugin.on_template_deleted {|template| $compiler_callback.templateDeleted(template) }
+
+    if debug
+      require 'pp'
+      pp Sass::Plugin.options
+      pp Compass::configuration if defined?(Compass)
+    end
+  end
+
+  # Raised into the compiling thread when a org.jasig.maven.plugin.sass.TemplateGuard limit is
+  # exceeded, with the reason as message. Sass::Plugin::Compiler#update_stylesheet rescues every
+  # Exception while rendering, so the reason usually reaches the callback through on_compilation_error.
+  class LimitExceeded < Exception; end
+
+  # Compile [template, css] pairs one by one so the metrics of each stylesheet can be told apart,
+  # the remaining pairs are skipped once the callback is cancelled (fail fast)
+  #
+  # guard - org.jasig.maven.plugin.sass.TemplateGuard limiting each stylesheet, nil for no limits
+  def self.update_stylesheets(stylesheets, guard)
+    stylesheets.each do |stylesheet|
+      template, css = stylesheet[0].to_s, stylesheet[1].to_s
+      if $compiler_callback.isCancelled
+        $compiler_callback.templateSkipped(template, css)
+        next
+      end
+      $sass_maven_css = css
+      $compiler_callback.templateStarted(template, css)
+      guarded(guard, template, css) { Sass::Plugin.update_stylesheets([[template, css]]) }
+    end
+  ensure
+    $sass_maven_css = nil
+  end
+
+  # Compile a single stylesheet within the limits of the guard. Sass reports failures while
+  # rendering itself, including exceeded limits and stack overflows of deeply nested templates.
+  # Those raised outside of rendering, e.g. while the css is written or by a limit exceeded just
+  # after rendering, fail the stylesheet here instead of the whole batch.
+  def self.guarded(guard, template, css)
+    if guard
+      compiling = Thread.current
+      guard.start(template) { compiling.raise(LimitExceeded, guard.getReason) }
+    end
+    begin
+      yield
+    ensure
+      $compiler_callback.templateAllocated(css, guard.stop) if guard
+    end
+  rescue LimitExceeded => e
+    $compiler_callback.compilationError(e.message, template, css)
+  rescue SystemStackError, StandardError => e
+    $compiler_callback.compilationError("#{e.class}: #{e.message}", template, css)
+  end
+
+  # Record if Sass::Plugin::Compiler#write_file changed the css file
+  def self.written(css, changed)
+    @written[css] = changed
+  end
+
+  # True unless the last write of the css file left it unchanged
+  def self.changed?(css)
+    @written.delete(css) != false
+  end
+
+  # Remember the stylesheet Sass::Plugin::Compiler is updating for render_profiles
+  def self.updating(template, css)
+    @updating = [template, css]
+    yield
+  ensure
+    @updating = nil
+  end
+
+  # Write the output profiles of the stylesheet being updated from its css tree. Only the first
+  # tree rendered for the stylesheet is the stylesheet itself.
+  def self.render_profiles(root)
+    return if @updating.nil?
+    template, css = @updating
+    @updating = nil
+
+    location = @profiles.keys.select { |l| css.index(l + '/') == 0 }.max { |a, b| a.length <=> b.length }
+    return if location.nil?
+
+    options = root.options
+    begin
+      @profiles[location].each do |profile|
+        root.options = options.merge(:style => profile.getStyle.to_sym,
+          :debug_info => profile.isDebugInfo, :line_comments => profile.isLineComments)
+        content = root.sass_maven_to_s
+        content = content.gsub("\n", "\r\n") if Sass::Util.windows? && !options[:unix_newlines]
+        file = profile.getOutputFile(css)
+        changed = Java::OrgJasigMavenPluginSass::StylesheetWriter.write(file, content.to_java_bytes)
+        $compiler_callback.updatedStylesheeet(template, file, changed) if $compiler_callback
+      end
+    ensure
+      root.options = options
+    end
+  end
+
+  # Gem directories the bootstrap script added to the load path, in load path order. See GemBundleIndex.
+  def self.gem_load_paths
+    return [] unless $sass_maven_load_path
+    ($LOAD_PATH - $sass_maven_load_path).map { |path| path.to_s }
+  end
+
+  # Name => path of the registered Compass frameworks, in registration order. See GemBundleIndex.
+  def self.frameworks
+    frameworks = {}
+    if defined?(Compass::Frameworks::ALL)
+      Compass::Frameworks::ALL.each { |framework| frameworks[framework.name.to_s] = framework.path.to_s }
+    end
+    frameworks
+  end
+
+  # True if Compass was loaded, by the bootstrap script or later by SassRuntime#activateCompass
+  def self.compass_loaded
+    defined?(Compass::Frameworks) ? true : false
+  end
+
+  # Report the time spent in Compass functions, see timed. Called again once Compass is loaded
+  # lazily, functions that are already wrapped are skipped.
+  def self.time_compass_functions
+    return unless defined?(Compass::SassExtensions::Functions)
+    Compass::SassExtensions::Functions.constants.each do |name|
+      mod = Compass::SassExtensions::Functions.const_get(name)
+      next unless mod.is_a?(Module)
+      mod.public_instance_methods(false).each do |function|
+        original = "sass_maven_#{function}"
+        next if function.to_s.index('sass_maven_') == 0 || mod.method_defined?(original)
+        mod.send(:alias_method, original, function)
+        mod.send(:define_method, function) do |*args|
+          SassMavenPlugin.timed('compass') { send(original, *args) }
+        end
+      end
+    end
+  end
+
+  # Watch the configured template locations, does not return
+  def self.watch
+    Sass::Plugin.watch
+  end
+
+  # Sass cache store backed by a SassCacheStore. Entries are addressed by content instead of
+  # by template path so identical partials share an entry across modules and branches.
+  class SharedCacheStore < Sass::CacheStores::Base
+    def initialize(store)
+      @store = store
+    end
+
+    def _store(key, version, sha, contents)
+      @store.store(address(key, version, sha), contents.to_java_bytes)
+    end
+
+    def _retrieve(key, version, sha)
+      contents = @store.retrieve(address(key, version, sha))
+      contents && String.from_java_bytes(contents)
+    end
+
+    private
+
+    def address(key, version, sha)
+      "#{version}/#{sha}/#{File.basename(key)}"
+    end
+  end
+
+  # Sass has no hooks for the phases of a compile, the methods doing the parsing, import
+  # resolution and Compass functions are wrapped so the time spent in them is reported for
+  # the stylesheet currently compiled. Nested calls of the same phase are only timed once.
+  # The phase names are the constants of TemplateMetrics.
+  def self.timed(phase)
+    return yield if @depth[phase] > 0 || $compiler_callback.nil? || $sass_maven_css.nil?
+    @depth[phase] += 1
+    start = java.lang.System.nano_time
+    begin
+      yield
+    ensure
+      @depth[phase] -= 1
+      $compiler_callback.templatePhase($sass_maven_css, phase, java.lang.System.nano_time - start)
+    end
+  end
+end
+
+class Sass::Engine
+  alias_method :sass_maven_to_tree, :to_tree
+  def to_tree; SassMavenPlugin.timed('parse') { sass_maven_to_tree }; end
+end
+
+if Sass::Tree::ImportNode.method_defined?(:imported_file)
+  class Sass::Tree::ImportNode
+    alias_method :sass_maven_imported_file, :imported_file
+    def imported_file; SassMavenPlugin.timed('imports') { sass_maven_imported_file }; end
+  end
+end
+
+# Only replace css files whose content changed, see StylesheetWriter
+if Sass::Plugin::Compiler.private_method_defined?(:write_file) || Sass::Plugin::Compiler.method_defined?(:write_file)
+  class Sass::Plugin::Compiler
+    def write_file(css, content)
+      content = content.gsub("\n", "\r\n") if Sass::Util.windows? && !options[:unix_newlines]
+      changed = Java::OrgJasigMavenPluginSass::StylesheetWriter.write(css, content.to_java_bytes)
+      SassMavenPlugin.written(css, changed)
+    end
+  end
+end
+
+# Output profiles are rendered from the css tree of the stylesheet, see OutputProfile
+class Sass::Tree::RootNode
+  alias_method :sass_maven_to_s, :to_s
+  def to_s
+    result = sass_maven_to_s
+    SassMavenPlugin.render_profiles(self)
+    result
+  end
+end
+
+if Sass::Plugin::Compiler.private_method_defined?(:update_stylesheet) || Sass::Plugin::Compiler.method_defined?(:update_stylesheet)
+  class Sass::Plugin::Compiler
+    sass_maven_private = private_method_defined?(:update_stylesheet)
+    alias_method :sass_maven_update_stylesheet, :update_stylesheet
+    def update_stylesheet(filename, css)
+      SassMavenPlugin.updating(filename, css) { sass_maven_update_stylesheet(filename, css) }
+    end
+    private :update_stylesheet if sass_maven_private
+  end
+end
+
+class Sass::CacheStores::Base
+  alias_method :sass_maven_retrieve, :retrieve
+  def retrieve(key, sha)
+    root = sass_maven_retrieve(key, sha)
+    $compiler_callback.cacheAccess($sass_maven_css, !root.nil?) if $compiler_callback && $sass_maven_css
+    root
+  end
+end
+
+SassMavenPlugin.time_compass_functions
@@ -0,0 +1,263 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+
+public class BuildManifestTest {
+    private static final String OPTIONS = "options";
+
+    private final Log log = new SystemStreamLog();
+    private File directory;
+    private File src;
+    private File manifestFile;
+    private ImportResolver importResolver;
+    private Entry<String, String> main;
+    private Entry<String, String> print;
+
+    @Before
+    public void createTemplates() throws IOException {
+        directory = Files.createTempDir();
+        src = new File(directory, "src");
+        manifestFile = new File(directory, "target/sass_manifest.properties");
+        importResolver = new ImportResolver(ImmutableList.of(src));
+
+        write("_colors.scss", "$red: #f00;");
+        main = stylesheet("main", "@import 'colors';\na { color: $red; }");
+        print = stylesheet("print", "a { color: black; }");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void testNewStylesheetsAreStale() throws IOException {
+        final BuildManifest manifest = load(OPTIONS);
+
+        assertEquals(ImmutableList.of(main, print), manifest.getStaleStylesheets(stylesheets(), importResolver));
+    }
+
+    @Test
+    public void testCompiledStylesheetsAreUpToDate() throws IOException {
+        compileAll();
+
+        assertEquals(ImmutableList.of(), load(OPTIONS).getStaleStylesheets(stylesheets(), importResolver));
+    }
+
+    @Test
+    public void testChangedPartialMakesImportersStale() throws IOException {
+        compileAll();
+
+        write("_colors.scss", "$red: #e00000;");
+
+        assertEquals(ImmutableList.of(main), load(OPTIONS).getStaleStylesheets(stylesheets(), importResolver));
+    }
+
+    @Test
+    public void testChangedFilesOnlyCheckDependents() throws IOException {
+        compileAll();
+
+        write("_colors.scss", "$red: #e00000;");
+        new File(print.getValue()).delete();
+
+        // the deleted output is only noticed by a full check
+        assertEquals(ImmutableList.of(main), load(OPTIONS).getStaleStylesheets(stylesheets(),
+                ImmutableList.of(ImportResolver.toPath(new File(src, "_colors.scss"))), importResolver));
+        assertEquals(ImmutableList.of(main, print), load(OPTIONS).getStaleStylesheets(stylesheets(), importResolver));
+    }
+
+    @Test
+    public void testModifiedOutputIsStale() throws IOException {
+        compileAll();
+
+        Files.write("a{}", new File(print.getValue()), Charsets.UTF_8);
+
+        assertEquals(ImmutableList.of(print), load(OPTIONS).getStaleStylesheets(stylesheets(), importResolver));
+    }
+
+    @Test
+    public void testMissingOrModifiedProfileOutputIsStale() throws IOException {
+        final OutputProfile minified = new OutputProfile("compressed", ".min", false, false);
+        final Map<String, List<OutputProfile>> outputProfiles = ImmutableMap.<String, List<OutputProfile>>of(
+                ImportResolver.toPath(new File(directory, "css")), ImmutableList.of(minified));
+        final BuildManifest manifest = BuildManifest.load(manifestFile, OPTIONS, outputProfiles, log);
+        final List<Entry<String, String>> stale = manifest.getStaleStylesheets(stylesheets(), importResolver);
+        for (final Entry<String, String> stylesheet : stale) {
+            final File minifiedCss = new File(minified.getOutputFile(stylesheet.getValue()));
+            Files.createParentDirs(minifiedCss);
+            Files.write("a{}", minifiedCss, Charsets.UTF_8);
+        }
+        compiled(manifest, stale, Collections.<String>emptySet(), Collections.<String>emptySet());
+
+        assertEquals(ImmutableList.of(), BuildManifest.load(manifestFile, OPTIONS, outputProfiles, log)
+                .getStaleStylesheets(stylesheets(), importResolver));
+
+        new File(minified.getOutputFile(main.getValue())).delete();
+        Files.write("b { }", new File(minified.getOutputFile(print.getValue())), Charsets.UTF_8);
+
+        assertEquals(ImmutableList.of(main, print), BuildManifest.load(manifestFile, OPTIONS, outputProfiles, log)
+                .getStaleStylesheets(stylesheets(), importResolver));
+    }
+
+    @Test
+    public void testOtherOptionsMakeAllStale() throws IOException {
+        compileAll();
+
+        assertEquals(stylesheets(), load("other options").getStaleStylesheets(stylesheets(), importResolver));
+    }
+
+    @Test
+    public void testFailedStylesheetIsStaleAndFirst() throws IOException {
+        final BuildManifest manifest = load(OPTIONS);
+        final List<Entry<String, String>> stale = manifest.getStaleStylesheets(stylesheets(), importResolver);
+        compiled(manifest, stale, ImmutableSet.of(print.getKey()), Collections.<String>emptySet());
+
+        final BuildManifest next = load(OPTIONS);
+        write("_colors.scss", "$red: #e00000;");
+        assertEquals(ImmutableList.of(print, main), next.prioritize(next.getStaleStylesheets(stylesheets(), importResolver)));
+    }
+
+    @Test
+    public void testSkippedStylesheetIsStale() throws IOException {
+        final BuildManifest manifest = load(OPTIONS);
+        final List<Entry<String, String>> stale = manifest.getStaleStylesheets(stylesheets(), importResolver);
+        compiled(manifest, stale, Collections.<String>emptySet(), ImmutableSet.of(print.getValue()));
+
+        assertEquals(ImmutableList.of(print), load(OPTIONS).getStaleStylesheets(stylesheets(), importResolver));
+    }
+
+    @Test
+    public void testSkippedStylesheetWithChangedInputsIsStale() throws IOException {
+        compileAll();
+
+        // the check refreshes the hash of the partial, the stylesheet is skipped by fail fast
+        write("_colors.scss", "$red: #e00000;");
+        final BuildManifest manifest = load(OPTIONS);
+        final List<Entry<String, String>> stale = manifest.getStaleStylesheets(stylesheets(), importResolver);
+        assertEquals(ImmutableList.of(main), stale);
+        compiled(manifest, stale, Collections.<String>emptySet(), ImmutableSet.of(main.getValue()));
+
+        assertEquals(ImmutableList.of(main), load(OPTIONS).getStaleStylesheets(stylesheets(), importResolver));
+    }
+
+    @Test
+    public void testAbortedCompileIsStale() throws IOException {
+        compileAll();
+
+        write("_colors.scss", "$red: #e00000;");
+        final BuildManifest manifest = load(OPTIONS);
+        manifest.stylesheetsFailed(manifest.getStaleStylesheets(stylesheets(), importResolver));
+        manifest.save();
+
+        assertEquals(ImmutableList.of(main), load(OPTIONS).getStaleStylesheets(stylesheets(), importResolver));
+    }
+
+    @Test
+    public void testCreatedPartialShadowingAnImportIsStale() throws IOException {
+        final File lib = new File(directory, "lib");
+        Files.createParentDirs(new File(lib, "_base.scss"));
+        Files.write("$size: 10px;", new File(lib, "_base.scss"), Charsets.UTF_8);
+        importResolver = new ImportResolver(ImmutableList.of(lib, src));
+        final Entry<String, String> layout = stylesheet("layout", "@import 'base';\np { margin: $size; }");
+        final List<Entry<String, String>> stylesheets = ImmutableList.of(layout);
+
+        final BuildManifest manifest = load(OPTIONS);
+        compiled(manifest, manifest.getStaleStylesheets(stylesheets, importResolver), Collections.<String>emptySet(),
+                Collections.<String>emptySet());
+
+        // Sass finds the new partial next to the template first, nothing known to the manifest changed
+        write("_base.scss", "$size: 12px;");
+
+        assertEquals(stylesheets, load(OPTIONS).getStaleStylesheets(stylesheets, importResolver));
+    }
+
+    private BuildManifest load(String options) {
+        return BuildManifest.load(manifestFile, options, log);
+    }
+
+    private void compileAll() throws IOException {
+        final BuildManifest manifest = load(OPTIONS);
+        compiled(manifest, manifest.getStaleStylesheets(stylesheets(), importResolver), Collections.<String>emptySet(),
+                Collections.<String>emptySet());
+    }
+
+    /**
+     * Write the css of the stylesheets that did not fail and record the result as a build would
+     */
+    private static void compiled(BuildManifest manifest, List<Entry<String, String>> stylesheets,
+            Collection<String> failedTemplates, Collection<String> skippedStylesheets) throws IOException {
+        for (final Entry<String, String> stylesheet : stylesheets) {
+            if (!failedTemplates.contains(stylesheet.getKey()) && !skippedStylesheets.contains(stylesheet.getValue())) {
+                final File css = new File(stylesheet.getValue());
+                Files.createParentDirs(css);
+                Files.write("/* " + stylesheet.getKey() + " */", css, Charsets.UTF_8);
+            }
+        }
+        manifest.stylesheetsCompiled(stylesheets, failedTemplates, skippedStylesheets);
+        manifest.save();
+    }
+
+    private List<Entry<String, String>> stylesheets() {
+        return ImmutableList.of(main, print);
+    }
+
+    private Entry<String, String> stylesheet(String name, String content) throws IOException {
+        final File template = write(name + ".scss", content);
+        return Maps.immutableEntry(ImportResolver.toPath(template),
+                ImportResolver.toPath(new File(directory, "css/" + name + ".css")));
+    }
+
+    /**
+     * Write a template, with a modification time that differs from the last write
+     */
+    private File write(String name, String content) throws IOException {
+        final File file = new File(src, name);
+        final long lastModified = file.lastModified();
+        Files.createParentDirs(file);
+        Files.write(content, file, Charsets.UTF_8);
+        if (file.lastModified() <= lastModified) {
+            file.setLastModified(lastModified + 1000);
+        }
+        return file;
+    }
+}
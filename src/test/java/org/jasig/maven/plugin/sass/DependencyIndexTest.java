@@ -0,0 +1,79 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+public class DependencyIndexTest {
+    @Test
+    public void testTransitiveDependents() {
+        final DependencyIndex index = new DependencyIndex();
+        index.setImports("main.scss", ImmutableList.of("_layout.scss", "_colors.scss"));
+        index.setImports("print.scss", ImmutableList.of("_colors.scss"));
+        index.setImports("_layout.scss", ImmutableList.of("_grid.scss"));
+
+        assertEquals(ImmutableSet.of("_grid.scss", "_layout.scss", "main.scss"),
+                index.getDependents(Collections.singleton("_grid.scss")));
+        assertEquals(ImmutableSet.of("_colors.scss", "main.scss", "print.scss"),
+                index.getDependents(Collections.singleton("_colors.scss")));
+        assertEquals(ImmutableSet.of("main.scss", "_layout.scss", "_colors.scss", "_grid.scss"),
+                index.getDependencies(Collections.singleton("main.scss")));
+    }
+
+    @Test
+    public void testSetImportsReplaces() {
+        final DependencyIndex index = new DependencyIndex();
+        index.setImports("main.scss", ImmutableList.of("_old.scss"));
+        index.setImports("main.scss", ImmutableList.of("_new.scss"));
+
+        assertEquals(ImmutableList.of("_new.scss"), index.getImports("main.scss"));
+        assertEquals(ImmutableSet.of("_old.scss"), index.getDependents(Collections.singleton("_old.scss")));
+        assertEquals(ImmutableSet.of("_new.scss", "main.scss"), index.getDependents(Collections.singleton("_new.scss")));
+    }
+
+    @Test
+    public void testRemoveKeepsImporters() {
+        final DependencyIndex index = new DependencyIndex();
+        index.setImports("main.scss", ImmutableList.of("_layout.scss"));
+        index.setImports("_layout.scss", ImmutableList.of("_grid.scss"));
+
+        index.remove("_layout.scss");
+
+        assertTrue(index.getImports("_layout.scss").isEmpty());
+        assertEquals(ImmutableSet.of("_layout.scss", "main.scss"), index.getDependents(Collections.singleton("_layout.scss")));
+        assertEquals(ImmutableSet.of("_grid.scss"), index.getDependents(Collections.singleton("_grid.scss")));
+    }
+
+    @Test
+    public void testImportCycle() {
+        final DependencyIndex index = new DependencyIndex();
+        index.setImports("_a.scss", ImmutableList.of("_b.scss"));
+        index.setImports("_b.scss", ImmutableList.of("_a.scss"));
+
+        assertEquals(ImmutableSet.of("_a.scss", "_b.scss"), index.getDependents(Collections.singleton("_a.scss")));
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class HttpArtifactCacheTest {
+    private final Map<String, byte[]> entries = new ConcurrentHashMap<String, byte[]>();
+    private volatile String authorization;
+    private volatile int failStatus;
+    private HttpServer server;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/cache/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                authorization = exchange.getRequestHeaders().getFirst("Authorization");
+                final String path = exchange.getRequestURI().getPath();
+                try (final InputStream in = exchange.getRequestBody()) {
+                    final byte[] body = IOUtils.toByteArray(in);
+                    if (failStatus != 0) {
+                        respond(exchange, failStatus, "failed");
+                    }
+                    else if ("PUT".equals(exchange.getRequestMethod())) {
+                        entries.put(path, body);
+                        respond(exchange, 201, "");
+                    }
+                    else if (entries.containsKey(path)) {
+                        respond(exchange, 200, entries.get(path));
+                    }
+                    else {
+                        respond(exchange, 404, "not found");
+                    }
+                }
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testMissingEntry() throws IOException {
+        final HttpArtifactCache cache = new HttpArtifactCache(getUrl(""));
+
+        assertNull(cache.get("0123abcd"));
+        assertNull(authorization);
+    }
+
+    @Test
+    public void testPutAndGet() throws IOException {
+        final HttpArtifactCache cache = new HttpArtifactCache(getUrl("") + "/");
+        final byte[] css = "a {\n  color: red; }\n".getBytes(Charsets.UTF_8);
+
+        cache.put("0123abcd", css);
+
+        assertArrayEquals(css, entries.get("/cache/0123abcd.css"));
+        assertArrayEquals(css, cache.get("0123abcd"));
+    }
+
+    @Test
+    public void testCredentialsFromUrl() throws IOException {
+        final HttpArtifactCache cache = new HttpArtifactCache(getUrl("builder:s3cret@"));
+
+        cache.put("0123abcd", new byte[] { 'a' });
+        assertEquals("Basic YnVpbGRlcjpzM2NyZXQ=", authorization);
+        cache.get("0123abcd");
+        assertEquals("Basic YnVpbGRlcjpzM2NyZXQ=", authorization);
+        assertEquals(getUrl("") + "/", cache.toString());
+    }
+
+    @Test
+    public void testEncodedCredentialsFromUrl() throws IOException {
+        final HttpArtifactCache cache = new HttpArtifactCache(getUrl("builder:p%40ss+w%3Ard@"));
+
+        cache.get("0123abcd");
+        assertEquals("Basic " + BaseEncoding.base64().encode("builder:p@ss+w:rd".getBytes(Charsets.UTF_8)), authorization);
+    }
+
+    @Test
+    public void testServerError() throws IOException {
+        final HttpArtifactCache cache = new HttpArtifactCache(getUrl(""));
+        failStatus = 500;
+
+        try {
+            cache.get("0123abcd");
+            fail("GET answered with 500 must fail");
+        }
+        catch (final IOException e) {
+            // expected
+        }
+        try {
+            cache.put("0123abcd", new byte[] { 'a' });
+            fail("PUT answered with 500 must fail");
+        }
+        catch (final IOException e) {
+            // expected
+        }
+    }
+
+    private String getUrl(String userInfo) {
+        return "http://" + userInfo + "127.0.0.1:" + server.getAddress().getPort() + "/cache";
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        respond(exchange, status, body.getBytes(Charsets.UTF_8));
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length > 0 ? body.length : -1);
+        try (final OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+public class ImportResolverTest {
+    private File directory;
+
+    @Before
+    public void createDirectory() {
+        directory = Files.createTempDir();
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void testImportNames() {
+        assertEquals(ImmutableList.of("colors", "layout/grid", "mixins", "theme.scss"),
+                ImportResolver.getImportNames("@import 'colors', \"layout/grid\";\n"
+                        + "@import mixins;\n"
+                        + "@import \"theme.scss\";\n"));
+    }
+
+    @Test
+    public void testPlainCssImportsAreIgnored() {
+        assertEquals(ImmutableList.of(),
+                ImportResolver.getImportNames("@import 'reset.css';\n"
+                        + "@import url(fonts.css);\n"
+                        + "@import 'http://example.org/fonts';\n"
+                        + "@import 'print' print;\n"));
+    }
+
+    @Test
+    public void testCommentedImportsAreIgnored() {
+        assertEquals(ImmutableList.of("used"),
+                ImportResolver.getImportNames("// @import 'line';\n/* @import 'block'; */\n@import 'used';\n"));
+    }
+
+    @Test
+    public void testRelativeBeforeLoadPaths() throws IOException {
+        final File src = new File(directory, "src");
+        final File lib = new File(directory, "lib");
+        write(new File(lib, "_colors.scss"), "$red: #f00;");
+        write(new File(lib, "mixins.sass"), "=box");
+        final File template = write(new File(src, "main.scss"), "@import 'colors', 'mixins', 'compass';");
+        final ImportResolver resolver = new ImportResolver(ImmutableList.of(lib, src));
+
+        assertEquals(ImmutableList.of(path(lib, "_colors.scss"), path(lib, "mixins.sass")), resolver.resolveImports(template));
+
+        // a partial next to the template shadows the one in the load path
+        write(new File(src, "_colors.scss"), "$red: #e00;");
+        assertEquals(ImmutableList.of(path(src, "_colors.scss"), path(lib, "mixins.sass")), resolver.resolveImports(template));
+    }
+
+    @Test
+    public void testSubdirectoryImport() throws IOException {
+        final File src = new File(directory, "src");
+        final File partial = write(new File(src, "layout/_grid.scss"), ".row {}");
+        final ImportResolver resolver = new ImportResolver(ImmutableList.of(src));
+
+        assertEquals(partial.getAbsoluteFile(), resolver.resolve(new File(src, "other"), "layout/grid"));
+        assertNull(resolver.resolve(src, "layout/missing"));
+    }
+
+    private static File write(File file, String content) throws IOException {
+        Files.createParentDirs(file);
+        Files.write(content, file, Charsets.UTF_8);
+        return file;
+    }
+
+    private static String path(File directory, String name) {
+        return ImportResolver.toPath(new File(directory, name));
+    }
+}
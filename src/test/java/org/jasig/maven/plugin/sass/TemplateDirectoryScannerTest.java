@@ -0,0 +1,108 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.codehaus.plexus.util.DirectoryScanner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+public class TemplateDirectoryScannerTest {
+    private File directory;
+
+    @Before
+    public void createDirectories() throws IOException {
+        directory = Files.createTempDir();
+        for (final String path : ImmutableList.of("a/b/c", "a/b/d", "a/.git/objects", "a/CVS", "e/b/c", "e/f",
+                "vendor/lib/b", ".svn/b")) {
+            new File(directory, path).mkdirs();
+        }
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void testAnyDirectories() throws IOException {
+        assertSameAsPlexus(ImmutableList.of("**"), ImmutableList.<String>of());
+    }
+
+    @Test
+    public void testTrailingSlash() throws IOException {
+        assertSameAsPlexus(ImmutableList.of("a/"), ImmutableList.<String>of());
+        assertSameAsPlexus(ImmutableList.of("**"), ImmutableList.of("vendor/"));
+    }
+
+    @Test
+    public void testDefaultExcludes() throws IOException {
+        assertSameAsPlexus(ImmutableList.of("**/b", "**/objects"), ImmutableList.<String>of());
+    }
+
+    @Test
+    public void testNestedIncludesAndExcludes() throws IOException {
+        assertSameAsPlexus(ImmutableList.of("*/b/**", "e/*"), ImmutableList.of("**/c", "e/b"));
+        assertSameAsPlexus(ImmutableList.of("a/**", "?/b/*"), ImmutableList.of("a/b/**"));
+    }
+
+    @Test
+    public void testAntAndRegexPatterns() throws IOException {
+        assertSameAsPlexus(ImmutableList.of("%ant[e/**]"), ImmutableList.<String>of());
+        assertSameAsPlexus(ImmutableList.of("%regex[(a|e)" + (File.separatorChar == '\\' ? "\\\\" : "/") + "b.*]"),
+                ImmutableList.of("%regex[.*d]"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRegexIsRejected() {
+        new TemplateDirectoryScanner(ImmutableList.of("%regex[a(]"), ImmutableList.<String>of());
+    }
+
+    private void assertSameAsPlexus(List<String> includes, List<String> excludes) throws IOException {
+        final DirectoryScanner scanner = new DirectoryScanner();
+        scanner.setBasedir(directory);
+        scanner.setIncludes(includes.toArray(new String[includes.size()]));
+        scanner.setExcludes(excludes.toArray(new String[excludes.size()]));
+        scanner.addDefaultExcludes();
+        scanner.scan();
+        final List<String> expected = new ArrayList<String>();
+        for (final String included : scanner.getIncludedDirectories()) {
+            // the base directory itself is always a template location
+            if (!included.isEmpty()) {
+                expected.add(FilenameUtils.separatorsToUnix(included));
+            }
+        }
+        Collections.sort(expected);
+
+        assertEquals(expected, new TemplateDirectoryScanner(includes, excludes).scan(directory).getIncludedDirectories());
+    }
+}
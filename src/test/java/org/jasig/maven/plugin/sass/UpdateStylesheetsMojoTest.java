@@ -0,0 +1,121 @@
+/**
+ * Licensed to Jasig under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work
+ * for additional information regarding copyright ownership.
+ * Jasig licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a
+ * copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.jasig.maven.plugin.sass;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+
+public class UpdateStylesheetsMojoTest {
+    private File directory;
+    private File first;
+    private File second;
+
+    @Before
+    public void createCheckouts() throws IOException {
+        directory = Files.createTempDir();
+        first = new File(directory, "first");
+        second = new File(directory, "second");
+        for (final File checkout : ImmutableList.of(first, second)) {
+            write(checkout, "src/main.scss", "@import 'base';\n@import 'colors';\na { color: $red; }");
+            write(checkout, "src/_base.scss", "body { margin: 0; }");
+            write(checkout, "lib/_colors.scss", "$red: #f00;");
+            new File(checkout, "vendor").mkdirs();
+        }
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void testCheckoutsShareKeys() throws IOException {
+        assertEquals(getArtifactCacheKey(first, "['lib']"), getArtifactCacheKey(second, "['lib']"));
+        assertEquals(getArtifactCacheKey(first, "['vendor', 'lib']"), getArtifactCacheKey(second, "['vendor', 'lib']"));
+    }
+
+    @Test
+    public void testChangedImportChangesKey() throws IOException {
+        write(second, "lib/_colors.scss", "$red: #e00000;");
+
+        assertFalse(getArtifactCacheKey(first, "['lib']").equals(getArtifactCacheKey(second, "['lib']")));
+    }
+
+    @Test
+    public void testLoadPathOfImportIsPartOfKey() throws IOException {
+        // same relative path and content, found in the second load path of the other checkout
+        new File(second, "lib/_colors.scss").renameTo(new File(second, "vendor/_colors.scss"));
+
+        assertFalse(getArtifactCacheKey(first, "['lib', 'vendor']").equals(getArtifactCacheKey(second, "['lib', 'vendor']")));
+    }
+
+    @Test
+    public void testWritingPathsKeysOnAbsolutePaths() throws IOException {
+        assertFalse(getArtifactCacheKey(first, "['lib']", "line_comments", "true")
+                .equals(getArtifactCacheKey(second, "['lib']", "line_comments", "true")));
+        assertEquals(getArtifactCacheKey(first, "['lib']", "line_comments", "false"),
+                getArtifactCacheKey(second, "['lib']", "line_comments", "false"));
+    }
+
+    private String getArtifactCacheKey(File checkout, String loadPaths, String... options) throws IOException {
+        final UpdateStylesheetsMojo mojo = new UpdateStylesheetsMojo();
+        mojo.buildDirectory = new File(checkout, "target");
+        // each checkout configures the absolute paths of its own load path directories
+        mojo.sassOptions.put("load_paths", loadPaths.replace("'lib'", quote(checkout, "lib"))
+                .replace("'vendor'", quote(checkout, "vendor")));
+        for (int i = 0; i < options.length; i += 2) {
+            mojo.sassOptions.put(options[i], options[i + 1]);
+        }
+
+        final String src = ImportResolver.toPath(new File(checkout, "src"));
+        final List<Entry<String, String>> templateLocations = ImmutableList.of(
+                Maps.immutableEntry(src, ImportResolver.toPath(new File(checkout, "target/css"))));
+        final Entry<String, String> stylesheet = Maps.immutableEntry(src + "/main.scss",
+                ImportResolver.toPath(new File(checkout, "target/css/main.css")));
+        final BuildManifest hashes = BuildManifest.load(new File(checkout, "target/sass_manifest.properties"), "options",
+                new SystemStreamLog());
+        return mojo.getArtifactCacheKey(stylesheet, templateLocations, hashes, mojo.createImportResolver(templateLocations));
+    }
+
+    private static String quote(File checkout, String name) {
+        return SassOptions.quote(ImportResolver.toPath(new File(checkout, name)));
+    }
+
+    private static void write(File checkout, String name, String content) throws IOException {
+        final File file = new File(checkout, name);
+        Files.createParentDirs(file);
+        Files.write(content, file, Charsets.UTF_8);
+    }
+}